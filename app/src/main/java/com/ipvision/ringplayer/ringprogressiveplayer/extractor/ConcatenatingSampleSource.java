@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.extractor;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.MediaFormat;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.MediaFormatHolder;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.MimeTypes;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.ParserException;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.SampleHolder;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.SampleSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.SampleSource.SampleSourceReader;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.TrackRenderer;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A {@link SampleSource} that plays a sequence of {@link ExtractorSampleSource}s (e.g. the items
+ * of a playlist) one after another, as a single continuous stream.
+ * <p>
+ * The tracks of the concatenation are those of the first item, and each later item must have a
+ * track of the same type (video, audio or text) for each of them. The timestamps of the samples of
+ * each item are offset by the total duration of the items before it, so that the renderers see
+ * one stream and are never re-created between items. When a track reaches the end of an item, it
+ * continues with the next one. A new format is only read if the format of the next item cannot be
+ * decoded by the codec that is already configured, in which case the renderer decides through its
+ * {@code canReconfigureCodec} whether the codec can be reconfigured rather than re-initialized.
+ * <p>
+ * Each item is prepared and starts to buffer once the item before it has finished loading, so
+ * that its first samples are available by the time playback reaches it. Since the durations of
+ * later items are not known when playback starts, the duration of a concatenation of more than
+ * one item is reported as unknown, and seeks are limited to the items that have been reached.
+ */
+public final class ConcatenatingSampleSource implements SampleSource, SampleSourceReader {
+
+  /**
+   * The duration of media of the next item to buffer before it is played, in milliseconds.
+   */
+  public static final int NEXT_ITEM_PRELOAD_DURATION_MS = 5000;
+  /**
+   * The maximum number of bytes of the next item to buffer before it is played.
+   */
+  public static final int NEXT_ITEM_PRELOAD_BYTES = 2 * 1024 * 1024;
+
+  private static final int NO_ITEM = -1;
+  private static final int NO_TRACK = -1;
+
+  private final ExtractorSampleSource[] sources;
+  private final SampleSourceReader[] readers;
+  private final int[][] itemTrackIndices;
+  private final long[] itemOffsetsUs;
+  private final long[] largestItemSampleTimesUs;
+
+  private int remainingReleaseCount;
+  private boolean prepared;
+  private MediaFormat[] mediaFormats;
+  private boolean[] trackEnabledStates;
+  private boolean[] pendingDiscontinuities;
+  private int[] trackItems;
+  private boolean[] trackItemEnabledStates;
+  private MediaFormat[] downstreamFormats;
+  private int preloadingItem;
+  private IOException incompatibleItemException;
+
+  /**
+   * @param sources The sources of the items, in the order in which they are played.
+   */
+  public ConcatenatingSampleSource(ExtractorSampleSource... sources) {
+    Assertions.checkArgument(sources.length > 0);
+    this.sources = sources;
+    readers = new SampleSourceReader[sources.length];
+    for (int i = 0; i < sources.length; i++) {
+      readers[i] = sources[i].register();
+    }
+    itemTrackIndices = new int[sources.length][];
+    itemOffsetsUs = new long[sources.length];
+    Arrays.fill(itemOffsetsUs, C.UNKNOWN_TIME_US);
+    itemOffsetsUs[0] = 0;
+    largestItemSampleTimesUs = new long[sources.length];
+    preloadingItem = NO_ITEM;
+  }
+
+  @Override
+  public SampleSourceReader register() {
+    remainingReleaseCount++;
+    return this;
+  }
+
+  @Override
+  public boolean prepare(long positionUs) {
+    if (prepared) {
+      return true;
+    }
+    if (!prepareItem(0)) {
+      return false;
+    }
+    int trackCount = readers[0].getTrackCount();
+    mediaFormats = new MediaFormat[trackCount];
+    for (int i = 0; i < trackCount; i++) {
+      MediaFormat format = readers[0].getFormat(i);
+      mediaFormats[i] = readers.length == 1 ? format : format.copyWithDurationUs(C.UNKNOWN_TIME_US);
+    }
+    trackEnabledStates = new boolean[trackCount];
+    pendingDiscontinuities = new boolean[trackCount];
+    trackItems = new int[trackCount];
+    trackItemEnabledStates = new boolean[trackCount];
+    downstreamFormats = new MediaFormat[trackCount];
+    prepared = true;
+    return true;
+  }
+
+  @Override
+  public int getTrackCount() {
+    Assertions.checkState(prepared);
+    return mediaFormats.length;
+  }
+
+  @Override
+  public MediaFormat getFormat(int track) {
+    Assertions.checkState(prepared);
+    return mediaFormats[track];
+  }
+
+  @Override
+  public void enable(int track, long positionUs) {
+    Assertions.checkState(prepared);
+    Assertions.checkState(!trackEnabledStates[track]);
+    trackEnabledStates[track] = true;
+    pendingDiscontinuities[track] = false;
+    downstreamFormats[track] = null;
+    int item = getItemIndex(positionUs);
+    trackItems[track] = item;
+    enableTrackItem(track, item, getItemPositionUs(item, positionUs));
+  }
+
+  @Override
+  public void disable(int track) {
+    Assertions.checkState(prepared);
+    Assertions.checkState(trackEnabledStates[track]);
+    trackEnabledStates[track] = false;
+    if (trackItemEnabledStates[track]) {
+      disableTrackItem(track);
+    }
+  }
+
+  @Override
+  public boolean continueBuffering(int track, long positionUs) {
+    Assertions.checkState(prepared);
+    Assertions.checkState(trackEnabledStates[track]);
+    maybePreloadNextItem();
+    if (!trackItemEnabledStates[track] && !maybeEnableNextTrackItem(track)) {
+      return false;
+    }
+    int item = trackItems[track];
+    return readers[item].continueBuffering(itemTrackIndices[item][track],
+        getItemPositionUs(item, positionUs));
+  }
+
+  @Override
+  public int readData(int track, long positionUs, MediaFormatHolder formatHolder,
+      SampleHolder sampleHolder, boolean onlyReadDiscontinuity) {
+    if (pendingDiscontinuities[track]) {
+      pendingDiscontinuities[track] = false;
+      return DISCONTINUITY_READ;
+    }
+
+    while (true) {
+      if (!trackItemEnabledStates[track]
+          && (onlyReadDiscontinuity || !maybeEnableNextTrackItem(track))) {
+        return NOTHING_READ;
+      }
+      int item = trackItems[track];
+      int result = readers[item].readData(itemTrackIndices[item][track],
+          getItemPositionUs(item, positionUs), formatHolder, sampleHolder, onlyReadDiscontinuity);
+      switch (result) {
+        case FORMAT_READ:
+          if (downstreamFormats[track] != null
+              && canContinueWithFormat(downstreamFormats[track], formatHolder.format)) {
+            // The next item can be decoded by the codec that is already configured.
+            continue;
+          }
+          downstreamFormats[track] = formatHolder.format;
+          return FORMAT_READ;
+        case SAMPLE_READ:
+          largestItemSampleTimesUs[item] = Math.max(largestItemSampleTimesUs[item],
+              sampleHolder.timeUs);
+          sampleHolder.timeUs += itemOffsetsUs[item];
+          return SAMPLE_READ;
+        case END_OF_STREAM:
+          if (item == readers.length - 1) {
+            return END_OF_STREAM;
+          }
+          // Continue with the next item.
+          disableTrackItem(track);
+          trackItems[track] = item + 1;
+          continue;
+        default:
+          return result;
+      }
+    }
+  }
+
+  @Override
+  public void maybeThrowError() throws IOException {
+    if (incompatibleItemException != null) {
+      throw incompatibleItemException;
+    }
+    if (!prepared) {
+      readers[0].maybeThrowError();
+      return;
+    }
+    for (int i = 0; i < trackEnabledStates.length; i++) {
+      if (trackEnabledStates[i]) {
+        readers[trackItems[i]].maybeThrowError();
+      }
+    }
+  }
+
+  @Override
+  public void seekToUs(long positionUs) {
+    Assertions.checkState(prepared);
+    int item = getItemIndex(positionUs);
+    long itemPositionUs = getItemPositionUs(item, positionUs);
+    boolean itemEnabled = false;
+    for (int i = 0; i < trackEnabledStates.length; i++) {
+      if (!trackEnabledStates[i]) {
+        continue;
+      }
+      if (trackItems[i] == item && trackItemEnabledStates[i]) {
+        itemEnabled = true;
+      } else if (trackItemEnabledStates[i]) {
+        disableTrackItem(i);
+      }
+    }
+    if (itemEnabled) {
+      readers[item].seekToUs(itemPositionUs);
+    }
+    for (int i = 0; i < trackEnabledStates.length; i++) {
+      if (trackEnabledStates[i] && !trackItemEnabledStates[i]) {
+        trackItems[i] = item;
+        enableTrackItem(i, item, itemPositionUs);
+        pendingDiscontinuities[i] = true;
+      }
+    }
+  }
+
+  @Override
+  public long getBufferedPositionUs() {
+    int item = getLatestItem();
+    if (!isItemEnabled(item)) {
+      // The tracks that have reached the item are waiting for it to be prepared.
+      return getItemStartUs(item);
+    }
+    long bufferedPositionUs = readers[item].getBufferedPositionUs();
+    if (bufferedPositionUs == TrackRenderer.END_OF_TRACK_US) {
+      return item == readers.length - 1 ? TrackRenderer.END_OF_TRACK_US : getItemStartUs(item + 1);
+    }
+    return itemOffsetsUs[item] + bufferedPositionUs;
+  }
+
+  @Override
+  public void release() {
+    Assertions.checkState(remainingReleaseCount > 0);
+    if (--remainingReleaseCount == 0) {
+      for (int i = 0; i < readers.length; i++) {
+        readers[i].release();
+      }
+    }
+  }
+
+  /**
+   * Prepares the source of an item, and maps the tracks of the concatenation onto its tracks.
+   *
+   * @param item The index of the item.
+   * @return Whether the item is prepared.
+   */
+  private boolean prepareItem(int item) {
+    if (itemTrackIndices[item] != null) {
+      return true;
+    }
+    if (incompatibleItemException != null || !readers[item].prepare(0)) {
+      return false;
+    }
+    SampleSourceReader reader = readers[item];
+    int itemTrackCount = reader.getTrackCount();
+    if (item == 0) {
+      int[] trackIndices = new int[itemTrackCount];
+      for (int i = 0; i < itemTrackCount; i++) {
+        trackIndices[i] = i;
+      }
+      itemTrackIndices[0] = trackIndices;
+      return true;
+    }
+    int[] trackIndices = new int[mediaFormats.length];
+    boolean[] itemTrackMapped = new boolean[itemTrackCount];
+    for (int i = 0; i < mediaFormats.length; i++) {
+      trackIndices[i] = NO_TRACK;
+      for (int j = 0; j < itemTrackCount && trackIndices[i] == NO_TRACK; j++) {
+        if (!itemTrackMapped[j] && isSameTrackType(mediaFormats[i], reader.getFormat(j))) {
+          itemTrackMapped[j] = true;
+          trackIndices[i] = j;
+        }
+      }
+      if (trackIndices[i] == NO_TRACK) {
+        incompatibleItemException = new ParserException("Item " + item + " has no track of type "
+            + mediaFormats[i].mimeType);
+        return false;
+      }
+    }
+    itemTrackIndices[item] = trackIndices;
+    return true;
+  }
+
+  /**
+   * Prepares the item after the latest item that is being read, and buffers the start of it, once
+   * the latest item has finished loading.
+   */
+  private void maybePreloadNextItem() {
+    int latestItem = getLatestItem();
+    int nextItem = latestItem + 1;
+    if (nextItem == readers.length || !isItemEnabled(latestItem)
+        || readers[latestItem].getBufferedPositionUs() != TrackRenderer.END_OF_TRACK_US) {
+      return;
+    }
+    if (itemTrackIndices[nextItem] != null) {
+      if (preloadingItem == nextItem) {
+        try {
+          sources[nextItem].continuePreload();
+        } catch (IOException e) {
+          // Thrown from maybeThrowError once playback reaches the item, if it is not recovered.
+        }
+      }
+      return;
+    }
+    if (prepareItem(nextItem)) {
+      sources[nextItem].startPreload(0, NEXT_ITEM_PRELOAD_DURATION_MS * 1000L,
+          NEXT_ITEM_PRELOAD_BYTES);
+      preloadingItem = nextItem;
+    }
+  }
+
+  /**
+   * Enables a track in the item it has reached by reading to the end of the previous item, if the
+   * item is prepared.
+   *
+   * @param track The track index.
+   * @return Whether the track is enabled in the item.
+   */
+  private boolean maybeEnableNextTrackItem(int track) {
+    int item = trackItems[track];
+    if (!prepareItem(item)) {
+      return false;
+    }
+    enableTrackItem(track, item, 0);
+    return true;
+  }
+
+  private void enableTrackItem(int track, int item, long itemPositionUs) {
+    if (itemOffsetsUs[item] == C.UNKNOWN_TIME_US) {
+      itemOffsetsUs[item] = getItemStartUs(item);
+    }
+    if (preloadingItem == item) {
+      // Enabling the item at the start of the preload keeps the preloaded media.
+      preloadingItem = NO_ITEM;
+    }
+    readers[item].enable(itemTrackIndices[item][track], itemPositionUs);
+    trackItemEnabledStates[track] = true;
+  }
+
+  private void disableTrackItem(int track) {
+    int item = trackItems[track];
+    readers[item].disable(itemTrackIndices[item][track]);
+    trackItemEnabledStates[track] = false;
+  }
+
+  /**
+   * Returns the index of the item that contains a position, out of the items whose start position
+   * is known.
+   */
+  private int getItemIndex(long positionUs) {
+    int item = 0;
+    while (item + 1 < readers.length && itemOffsetsUs[item + 1] != C.UNKNOWN_TIME_US
+        && positionUs >= itemOffsetsUs[item + 1]) {
+      item++;
+    }
+    return item;
+  }
+
+  private long getItemPositionUs(int item, long positionUs) {
+    return Math.max(0, positionUs - itemOffsetsUs[item]);
+  }
+
+  /**
+   * Returns the position at which an item starts. Must only be called once the item before it has
+   * been prepared.
+   */
+  private long getItemStartUs(int item) {
+    if (itemOffsetsUs[item] != C.UNKNOWN_TIME_US) {
+      return itemOffsetsUs[item];
+    }
+    return getItemStartUs(item - 1) + getItemDurationUs(item - 1);
+  }
+
+  /**
+   * Returns the duration of a prepared item, which is that of its longest track, or the timestamp
+   * of the latest sample read from it if no track duration is known.
+   */
+  private long getItemDurationUs(int item) {
+    long durationUs = C.UNKNOWN_TIME_US;
+    SampleSourceReader reader = readers[item];
+    for (int i = 0; i < reader.getTrackCount(); i++) {
+      durationUs = Math.max(durationUs, reader.getFormat(i).durationUs);
+    }
+    return durationUs >= 0 ? durationUs : largestItemSampleTimesUs[item];
+  }
+
+  /**
+   * Returns the latest item that an enabled track has reached.
+   */
+  private int getLatestItem() {
+    int item = 0;
+    for (int i = 0; i < trackEnabledStates.length; i++) {
+      if (trackEnabledStates[i]) {
+        item = Math.max(item, trackItems[i]);
+      }
+    }
+    return item;
+  }
+
+  private boolean isItemEnabled(int item) {
+    for (int i = 0; i < trackEnabledStates.length; i++) {
+      if (trackEnabledStates[i] && trackItems[i] == item && trackItemEnabledStates[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isSameTrackType(MediaFormat format, MediaFormat otherFormat) {
+    return MimeTypes.isVideo(format.mimeType) == MimeTypes.isVideo(otherFormat.mimeType)
+        && MimeTypes.isAudio(format.mimeType) == MimeTypes.isAudio(otherFormat.mimeType)
+        && MimeTypes.isText(format.mimeType) == MimeTypes.isText(otherFormat.mimeType);
+  }
+
+  /**
+   * Returns whether samples of a new format can be fed to a codec configured for the current
+   * format without informing the renderer of the change. This is the case if the formats differ
+   * only in properties that the codec does not use, such as the duration, and samples of the new
+   * format fit the input buffers of the codec.
+   *
+   * @param format The current format.
+   * @param newFormat The new format.
+   * @return Whether the new format can be read without a format change.
+   */
+  private static boolean canContinueWithFormat(MediaFormat format, MediaFormat newFormat) {
+    if (!Util.areEqual(format.mimeType, newFormat.mimeType)
+        || format.width != newFormat.width || format.height != newFormat.height
+        || format.rotationDegrees != newFormat.rotationDegrees
+        || format.pixelWidthHeightRatio != newFormat.pixelWidthHeightRatio
+        || format.channelCount != newFormat.channelCount
+        || format.sampleRate != newFormat.sampleRate
+        || (newFormat.maxInputSize == MediaFormat.NO_VALUE
+            ? format.maxInputSize != MediaFormat.NO_VALUE
+            : format.maxInputSize == MediaFormat.NO_VALUE
+                || newFormat.maxInputSize > format.maxInputSize)
+        || format.initializationData.size() != newFormat.initializationData.size()) {
+      return false;
+    }
+    for (int i = 0; i < format.initializationData.size(); i++) {
+      if (!Arrays.equals(format.initializationData.get(i), newFormat.initializationData.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
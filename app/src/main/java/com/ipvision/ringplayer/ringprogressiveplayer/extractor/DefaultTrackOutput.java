@@ -82,8 +82,56 @@ public class DefaultTrackOutput implements TrackOutput {
    */
   public void discardUpstreamSamples(int discardFromIndex) {
     rollingBuffer.discardUpstreamSamples(discardFromIndex);
-    largestParsedTimestampUs = rollingBuffer.peekSample(sampleInfoHolder) ? sampleInfoHolder.timeUs
-        : Long.MIN_VALUE;
+    largestParsedTimestampUs = rollingBuffer.getLargestQueuedTimestampUs();
+  }
+
+  /**
+   * Returns the absolute index of the last keyframe in the queue whose timestamp is less than or
+   * equal to the specified time.
+   *
+   * @param timeUs The time.
+   * @return The absolute index of the keyframe, or -1 if there is no such keyframe in the queue.
+   */
+  public int getKeyframeIndexBefore(long timeUs) {
+    return rollingBuffer.getKeyframeIndexBefore(timeUs);
+  }
+
+  /**
+   * Returns the timestamp of a sample in the queue.
+   *
+   * @param index The absolute index of the sample.
+   * @return The timestamp of the sample.
+   */
+  public long getSampleTimeUs(int index) {
+    return rollingBuffer.getSampleTimeUs(index);
+  }
+
+  // Called by either thread.
+
+  /**
+   * Returns the number of bytes of sample data held by the queue that have yet to be read. Data
+   * retained in the back buffer is not included.
+   */
+  public long getBufferedBytes() {
+    return rollingBuffer.getBufferedBytes();
+  }
+
+  /**
+   * Returns the number of bytes of read sample data retained in the back buffer.
+   */
+  public long getBackBufferBytes() {
+    return rollingBuffer.getBackBufferBytes();
+  }
+
+  /**
+   * Sets the maximum amount of read sample data that the queue retains, so that
+   * {@link #skipToKeyframeBefore(long)} can rewind to it. By default no data is retained.
+   *
+   * @param maxBytes The maximum number of bytes of read sample data to retain.
+   * @param maxDurationUs The maximum duration of read samples to retain, in microseconds.
+   */
+  public void setBackBuffer(int maxBytes, long maxDurationUs) {
+    rollingBuffer.setBackBuffer(maxBytes, maxDurationUs);
   }
 
   // Called by the consuming thread.
@@ -95,6 +143,15 @@ public class DefaultTrackOutput implements TrackOutput {
     return rollingBuffer.getReadIndex();
   }
 
+  /**
+   * Discards all read sample data retained in the back buffer, freeing its memory. The queue
+   * continues to retain data read from now on, within the caps set by
+   * {@link #setBackBuffer(int, long)}.
+   */
+  public void discardBackBuffer() {
+    rollingBuffer.discardBackBuffer();
+  }
+
   /**
    * True if the output has received a format. False otherwise.
    */
@@ -160,7 +217,8 @@ public class DefaultTrackOutput implements TrackOutput {
   }
 
   /**
-   * Attempts to skip to the keyframe before the specified time, if it's present in the buffer.
+   * Attempts to skip to the keyframe before the specified time, if it's present in the buffer or
+   * retained in its back buffer.
    *
    * @param timeUs The seek time.
    * @return True if the skip was successful. False otherwise.
@@ -21,8 +21,10 @@ import android.util.Log;
 import android.util.SparseArray;
 
 import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.LoadControl;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.MediaFormat;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.MediaFormatHolder;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.MimeTypes;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.ParserException;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.SampleHolder;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.SampleSource;
@@ -33,8 +35,11 @@ import com.ipvision.ringplayer.ringprogressiveplayer.upstream.Allocator;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DataSource;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DataSpec;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultAllocator;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultRetryPolicy;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.LoadScheduler;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.Loader;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.Loader.Loadable;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.RetryPolicy;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
 
@@ -42,6 +47,9 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A {@link SampleSource} that extracts sample data using an {@link Extractor}.
@@ -93,8 +101,31 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
    */
   public static final int DEFAULT_MIN_LOADABLE_RETRY_COUNT_LIVE = 6;
 
+  /**
+   * The default number of bytes skipped by a forward seek during startup that are fetched
+   * concurrently by the startup prefetcher.
+   */
+  public static final int DEFAULT_STARTUP_PREFETCH_LENGTH = 1024 * 1024;
+
+  /**
+   * The duration of buffered media at which an enabled track is considered to have filled its
+   * quota, regardless of how many bytes it holds, in milliseconds.
+   */
+  public static final int TRACK_BUFFER_DURATION_QUOTA_MS = 60000;
+
+  /**
+   * The weights of video and other tracks when the requested buffer size is partitioned into the
+   * byte quotas of the enabled tracks.
+   */
+  private static final int VIDEO_TRACK_BUFFER_WEIGHT = 4;
+  private static final int OTHER_TRACK_BUFFER_WEIGHT = 1;
+
   private static final int MIN_RETRY_COUNT_DEFAULT_FOR_MEDIA = -1;
   private static final long NO_RESET_PENDING = Long.MIN_VALUE;
+  private static final long NO_BUFFER_TRIM_PENDING = Long.MIN_VALUE;
+  private static final long NO_PRELOAD = Long.MIN_VALUE;
+  // How long the loader must wait for memory before the back buffers are discarded to make room.
+  private static final long BACK_BUFFER_DISCARD_WAIT_MS = 200;
 
   /**
    * Default extractor classes in priority order. They are referred to indirectly so that it is
@@ -160,15 +191,27 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
   private final ExtractorHolder extractorHolder;
   private final Allocator allocator;
   private final int requestedBufferSize;
+  private final int maxBufferSize;
+  private final TrackBufferMonitor trackBufferMonitor;
   private final SparseArray<InternalTrackOutput> sampleQueues;
   private final int minLoadableRetryCount;
   private final Uri uri;
   private final DataSource dataSource;
+  private final StartupPrefetcher startupPrefetcher;
+  private final LoadScheduler loadScheduler;
+  private final LoadingGate loadingGate;
 
   private volatile boolean tracksBuilt;
   private volatile SeekMap seekMap;
   private volatile DrmInitData drmInitData;
-
+  private volatile long pendingBufferTrimDurationUs;
+  private volatile boolean pendingBackBufferDiscard;
+  private volatile int loadPriority;
+
+  private LoadControl loadControl;
+  private RetryPolicy retryPolicy;
+  private int backBufferBytes;
+  private long backBufferDurationUs;
   private boolean prepared;
   private int enabledTrackCount;
   private MediaFormat[] mediaFormats;
@@ -181,6 +224,13 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
   private long downstreamPositionUs;
   private long lastSeekPositionUs;
   private long pendingResetPositionUs;
+  private long bufferTrimPositionUs;
+  private boolean refillingAfterSeek;
+  private long preloadPositionUs;
+  private long preloadDurationUs;
+  private long preloadBytes;
+  private boolean loadSuspended;
+  private Runnable loadSuspendedCallback;
 
   private boolean havePendingNextSampleUs;
   private long pendingNextSampleUs;
@@ -189,9 +239,9 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
   private Loader loader;
   private ExtractingLoadable loadable;
   private IOException currentLoadableException;
-  // TODO: Set this back to 0 in the correct place (some place indicative of making progress).
   private int currentLoadableExceptionCount;
   private long currentLoadableExceptionTimestamp;
+  private long currentLoadableRetryDelayMs;
   private boolean loadingFinished;
 
   private int extractedSampleCount;
@@ -227,6 +277,24 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
         extractors);
   }
 
+  /**
+   * @param uri The {@link Uri} of the media stream.
+   * @param dataSource A data source to read the media stream.
+   * @param prefetchDataSource An optional second data source, used to prefetch data skipped by a
+   *     forward seek while reading the stream's headers. See
+   *     {@link #ExtractorSampleSource(Uri, DataSource, DataSource, Allocator, int, int, Extractor...)}.
+   * @param allocator An {@link Allocator} from which to obtain memory allocations.
+   * @param requestedBufferSize The requested total buffer size for storing sample data, in bytes.
+   *     The actual allocated size may exceed the value passed in if the implementation requires it.
+   * @param extractors {@link Extractor}s to extract the media stream, in order of decreasing
+   *     priority. If omitted, the default extractors will be used.
+   */
+  public ExtractorSampleSource(Uri uri, DataSource dataSource, DataSource prefetchDataSource,
+      Allocator allocator, int requestedBufferSize, Extractor... extractors) {
+    this(uri, dataSource, prefetchDataSource, allocator, requestedBufferSize,
+        MIN_RETRY_COUNT_DEFAULT_FOR_MEDIA, extractors);
+  }
+
   /**
    * @param uri The {@link Uri} of the media stream.
    * @param dataSource A data source to read the media stream.
@@ -257,12 +325,67 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
    */
   public ExtractorSampleSource(Uri uri, DataSource dataSource, Allocator allocator,
       int requestedBufferSize, int minLoadableRetryCount, Extractor... extractors) {
+    this(uri, dataSource, null, allocator, requestedBufferSize, minLoadableRetryCount, extractors);
+  }
+
+  /**
+   * @param uri The {@link Uri} of the media stream.
+   * @param dataSource A data source to read the media stream.
+   * @param prefetchDataSource An optional second data source. If the extractor seeks forward past
+   *     media data before the stream's {@link SeekMap} is known (e.g. because an MP4 file's moov
+   *     atom follows its mdat atom), the skipped data is fetched through this source concurrently
+   *     with the forward seek. It should share a cache with {@code dataSource}, so that the
+   *     prefetched data is available when the extractor seeks back to it.
+   * @param allocator An {@link Allocator} from which to obtain memory allocations.
+   * @param requestedBufferSize The requested total buffer size for storing sample data, in bytes.
+   *     The actual allocated size may exceed the value passed in if the implementation requires it.
+   * @param minLoadableRetryCount The minimum number of times that the sample source will retry
+   *     if a loading error occurs.
+   * @param extractors {@link Extractor}s to extract the media stream, in order of decreasing
+   *     priority. If omitted, the default extractors will be used.
+   */
+  public ExtractorSampleSource(Uri uri, DataSource dataSource, DataSource prefetchDataSource,
+      Allocator allocator, int requestedBufferSize, int minLoadableRetryCount,
+      Extractor... extractors) {
+    this(uri, dataSource, prefetchDataSource, allocator, requestedBufferSize,
+        minLoadableRetryCount, null, extractors);
+  }
+
+  /**
+   * @param uri The {@link Uri} of the media stream.
+   * @param dataSource A data source to read the media stream.
+   * @param prefetchDataSource An optional second data source, used to prefetch data skipped by a
+   *     forward seek while reading the stream's headers. See
+   *     {@link #ExtractorSampleSource(Uri, DataSource, DataSource, Allocator, int, int, Extractor...)}.
+   * @param allocator An {@link Allocator} from which to obtain memory allocations.
+   * @param requestedBufferSize The requested total buffer size for storing sample data, in bytes.
+   *     The actual allocated size may exceed the value passed in if the implementation requires it.
+   * @param minLoadableRetryCount The minimum number of times that the sample source will retry
+   *     if a loading error occurs.
+   * @param loadScheduler An optional {@link LoadScheduler} shared with other sources, on which
+   *     loads are run with the priority set by {@link #setLoadPriority(int)}, or with
+   *     {@link LoadScheduler#PRIORITY_SEEK} while refilling the buffer after a seek if that is
+   *     higher. If null, the source loads on a thread of its own.
+   * @param extractors {@link Extractor}s to extract the media stream, in order of decreasing
+   *     priority. If omitted, the default extractors will be used.
+   */
+  public ExtractorSampleSource(Uri uri, DataSource dataSource, DataSource prefetchDataSource,
+      Allocator allocator, int requestedBufferSize, int minLoadableRetryCount,
+      LoadScheduler loadScheduler, Extractor... extractors) {
     Log.d(TAG,"requestedBufferSize : " + requestedBufferSize);
     this.uri = uri;
     this.dataSource = dataSource;
+    this.startupPrefetcher = prefetchDataSource == null ? null
+        : new StartupPrefetcher(uri, prefetchDataSource, DEFAULT_STARTUP_PREFETCH_LENGTH);
     this.allocator = allocator;
     this.requestedBufferSize = requestedBufferSize;
+    // Loading may exceed the requested size while a track is below its quota.
+    maxBufferSize = requestedBufferSize + requestedBufferSize / 2;
+    trackBufferMonitor = new TrackBufferMonitor();
     this.minLoadableRetryCount = minLoadableRetryCount;
+    this.loadScheduler = loadScheduler;
+    loadingGate = new LoadingGate();
+    retryPolicy = new DefaultRetryPolicy();
     if (extractors == null || extractors.length == 0) {
       extractors = new Extractor[DEFAULT_EXTRACTOR_CLASSES.size()];
       for (int i = 0; i < extractors.length; i++) {
@@ -278,6 +401,190 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
     extractorHolder = new ExtractorHolder(extractors, this);
     sampleQueues = new SparseArray<>();
     pendingResetPositionUs = NO_RESET_PENDING;
+    pendingBufferTrimDurationUs = NO_BUFFER_TRIM_PENDING;
+    bufferTrimPositionUs = NO_BUFFER_TRIM_PENDING;
+    preloadPositionUs = NO_PRELOAD;
+    loadPriority = LoadScheduler.PRIORITY_PLAYBACK;
+  }
+
+  /**
+   * Sets the priority of loads run on the {@link LoadScheduler}, e.g.
+   * {@link LoadScheduler#PRIORITY_PLAYBACK} while the media is being played and
+   * {@link LoadScheduler#PRIORITY_PRELOAD} otherwise. Does nothing if the source was not given a
+   * {@link LoadScheduler}.
+   * <p>
+   * May be called from any thread. The priority is applied the next time the source is asked to
+   * continue buffering.
+   *
+   * @param priority The priority, as defined by {@link LoadScheduler}.
+   */
+  public void setLoadPriority(int priority) {
+    loadPriority = priority;
+  }
+
+  /**
+   * Sets a {@link LoadControl} that decides whether loading should continue given the duration of
+   * media buffered ahead of the playback position. Loading is paused with the stream's connection
+   * closed while the control says it should not continue. Loading is always limited by the
+   * requested buffer size, whether or not a control is set. By default no control is set.
+   * <p>
+   * Must be called before the source is prepared.
+   *
+   * @param loadControl The {@link LoadControl}, or null.
+   */
+  public void setLoadControl(LoadControl loadControl) {
+    Assertions.checkState(!prepared);
+    this.loadControl = loadControl;
+  }
+
+  /**
+   * Sets the {@link RetryPolicy} that decides whether and when a load that failed is retried. Loads
+   * are resumed from the position at which they failed where possible. The count of errors passed
+   * to the policy is reset once a resumed load makes progress. By default a
+   * {@link DefaultRetryPolicy} is used.
+   * <p>
+   * Must be called before the source is prepared.
+   *
+   * @param retryPolicy The {@link RetryPolicy}.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    Assertions.checkState(!prepared);
+    this.retryPolicy = Assertions.checkNotNull(retryPolicy);
+  }
+
+  /**
+   * Sets the maximum amount of already read media that each track retains, so that seeking back
+   * into it does not require the media to be loaded again. By default no media is retained.
+   * <p>
+   * Must be called before the source is prepared.
+   *
+   * @param maxBytes The maximum number of bytes of read sample data that each track retains.
+   * @param maxDurationMs The maximum duration of read samples that each track retains, in
+   *     milliseconds.
+   */
+  public void setBackBuffer(int maxBytes, int maxDurationMs) {
+    Assertions.checkState(!prepared);
+    backBufferBytes = maxBytes;
+    backBufferDurationUs = maxDurationMs * 1000L;
+  }
+
+  /**
+   * Starts loading from a position before any track is enabled, until a bounded amount of media
+   * has been buffered. The buffered media is kept if the first track is then enabled at the same
+   * position, so that playback can start without waiting for it to be loaded.
+   * <p>
+   * Must be called after the source has been prepared, and is driven by calls to
+   * {@link #continuePreload()} rather than {@link #continueBuffering(int, long)}.
+   *
+   * @param positionUs The position from which to load.
+   * @param durationUs The duration of media to buffer ahead of the position.
+   * @param bytes The maximum number of bytes to buffer.
+   */
+  public void startPreload(long positionUs, long durationUs, long bytes) {
+    Assertions.checkState(prepared);
+    Assertions.checkState(enabledTrackCount == 0);
+    // Treat all preloads of non-seekable media as being from t=0.
+    positionUs = !seekMap.isSeekable() ? 0 : positionUs;
+    preloadPositionUs = positionUs;
+    preloadDurationUs = durationUs;
+    preloadBytes = bytes;
+    downstreamPositionUs = positionUs;
+    lastSeekPositionUs = positionUs;
+    trackBufferMonitor.setPlaybackPositionUs(positionUs);
+    restartFrom(positionUs);
+  }
+
+  /**
+   * Continues a preload started by {@link #startPreload(long, long, long)}. Loading pauses once
+   * the requested amount of media has been buffered.
+   *
+   * @return Whether the preload has buffered the requested amount of media, or the whole stream.
+   * @throws IOException If the preload failed and will not be retried.
+   */
+  public boolean continuePreload() throws IOException {
+    Assertions.checkState(preloadPositionUs != NO_PRELOAD);
+    maybeResetLoadableExceptionCount();
+    maybeStartLoading();
+    updateLoadingGate();
+    maybeThrowError();
+    return loadingFinished || loadingGate.isPaused();
+  }
+
+  /**
+   * Stops the load of a preload, so that the source can be handed over to another thread. The
+   * extractor and the buffered media are kept, and loading resumes from where it stopped once the
+   * source is prepared or enabled on the thread that takes it over.
+   * <p>
+   * Must be called on the thread that prepared the source, since the loader reports the end of the
+   * load to that thread's looper.
+   *
+   * @param callback Invoked on the calling thread once the load has stopped, which may be before
+   *     this method returns.
+   */
+  public void suspendLoading(Runnable callback) {
+    Assertions.checkState(enabledTrackCount == 0);
+    if (loader == null || !loader.isLoading()) {
+      callback.run();
+      return;
+    }
+    loadSuspended = !isPendingReset();
+    loadSuspendedCallback = callback;
+    loader.cancelLoading();
+  }
+
+  /**
+   * Returns the number of bytes of sample data buffered for a track.
+   *
+   * @param track The track index.
+   * @return The number of buffered bytes.
+   */
+  public long getTrackBufferedBytes(int track) {
+    Assertions.checkState(prepared);
+    return sampleQueues.valueAt(track).getBufferedBytes();
+  }
+
+  /**
+   * Returns the duration of media buffered for a track ahead of the playback position.
+   *
+   * @param track The track index.
+   * @return The buffered duration in microseconds, or 0 if nothing is buffered ahead of the
+   *     playback position.
+   */
+  public long getTrackBufferedDurationUs(int track) {
+    Assertions.checkState(prepared);
+    long largestParsedTimestampUs = sampleQueues.valueAt(track).getLargestParsedTimestampUs();
+    return largestParsedTimestampUs == Long.MIN_VALUE ? 0
+        : Math.max(0, largestParsedTimestampUs - downstreamPositionUs);
+  }
+
+  /**
+   * Returns the byte quota of a track, which is its share of the requested buffer size while it is
+   * enabled, or 0 if it is disabled.
+   *
+   * @param track The track index.
+   * @return The byte quota.
+   */
+  public long getTrackBufferQuotaBytes(int track) {
+    Assertions.checkState(prepared);
+    return sampleQueues.valueAt(track).bufferQuotaBytes;
+  }
+
+  /**
+   * Requests that buffered samples further ahead of the playback position than the specified
+   * duration are discarded, for example to free memory when the system is running low. Loading
+   * resumes from the point at which samples were discarded. Samples retained in the back buffer
+   * are always discarded first, since they are the least likely to be needed.
+   * <p>
+   * May be called from any thread. The request is handled the next time the source is asked to
+   * continue buffering, and is ignored if the stream is not seekable. The {@link SeekMap} of the
+   * extractor must map times to the position of the keyframe at or before them in every track, as
+   * is the case for MP4.
+   *
+   * @param retainedDurationUs The duration of media ahead of the playback position to retain.
+   */
+  public void requestBufferTrim(long retainedDurationUs) {
+    pendingBackBufferDiscard = true;
+    pendingBufferTrimDurationUs = retainedDurationUs;
   }
 
   @Override
@@ -292,7 +599,8 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
       return true;
     }
     if (loader == null) {
-      loader = new Loader("Loader:ExtractorSampleSource");
+      loader = loadScheduler != null ? new Loader(loadScheduler, getEffectiveLoadPriority())
+          : new Loader("Loader:ExtractorSampleSource");
     }
 
     maybeStartLoading();
@@ -342,8 +650,19 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
       positionUs = !seekMap.isSeekable() ? 0 : positionUs;
       downstreamPositionUs = positionUs;
       lastSeekPositionUs = positionUs;
-      restartFrom(positionUs);
+      trackBufferMonitor.setPlaybackPositionUs(positionUs);
+      if (preloadPositionUs == positionUs
+          && (loadSuspended || loader.isLoading() || loadingFinished)) {
+        // Keep the preloaded media, and continue loading from where the preload has got to. A
+        // suspended preload load is resumed on this thread, so that its callbacks arrive here.
+        loadingGate.setPaused(false);
+        maybeStartLoading();
+      } else {
+        restartFrom(positionUs);
+      }
+      preloadPositionUs = NO_PRELOAD;
     }
+    updateTrackBufferQuotas();
   }
 
   @Override
@@ -361,6 +680,7 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
         allocator.trim(0);
       }
     }
+    updateTrackBufferQuotas();
   }
 
   @Override
@@ -368,15 +688,26 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
     Assertions.checkState(prepared);
     Assertions.checkState(trackEnabledStates[track]);
     downstreamPositionUs = playbackPositionUs;
+    trackBufferMonitor.setPlaybackPositionUs(playbackPositionUs);
+    maybeResetLoadableExceptionCount();
     discardSamplesForDisabledTracks(downstreamPositionUs);
+    maybeDiscardBackBuffers();
+    maybeStartBufferTrim();
+    updateLoadingGate();
     if (loadingFinished) {
+      refillingAfterSeek = false;
       return true;
     }
     maybeStartLoading();
     if (isPendingReset()) {
       return false;
     }
-    return !sampleQueues.valueAt(track).isEmpty();
+    boolean haveSamples = !sampleQueues.valueAt(track).isEmpty();
+    if (haveSamples) {
+      refillingAfterSeek = false;
+    }
+    loader.setPriority(getEffectiveLoadPriority());
+    return haveSamples;
   }
 
   @Override
@@ -450,6 +781,7 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
 
     long currentPositionUs = isPendingReset() ? pendingResetPositionUs : downstreamPositionUs;
     downstreamPositionUs = positionUs;
+    trackBufferMonitor.setPlaybackPositionUs(positionUs);
     lastSeekPositionUs = positionUs;
     if (currentPositionUs == positionUs) {
       return;
@@ -463,6 +795,8 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
 
     // If we failed to seek within the sample queues, we need to restart.
     if (!seekInsideBuffer) {
+      refillingAfterSeek = true;
+      loader.setPriority(getEffectiveLoadPriority());
       restartFrom(positionUs);
     }
 
@@ -495,6 +829,9 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
     if (--remainingReleaseCount == 0 && loader != null) {
       loader.release();
       loader = null;
+      if (startupPrefetcher != null) {
+        startupPrefetcher.release();
+      }
     }
   }
 
@@ -507,7 +844,19 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
 
   @Override
   public void onLoadCanceled(Loadable loadable) {
-    if (enabledTrackCount > 0) {
+    if (loadSuspendedCallback != null) {
+      Runnable callback = loadSuspendedCallback;
+      loadSuspendedCallback = null;
+      if (!loadSuspended) {
+        clearState();
+      }
+      callback.run();
+      return;
+    }
+    if (bufferTrimPositionUs != NO_BUFFER_TRIM_PENDING && enabledTrackCount > 0
+        && !isPendingReset()) {
+      trimBuffer();
+    } else if (enabledTrackCount > 0) {
       restartFrom(pendingResetPositionUs);
     } else {
       clearState();
@@ -521,6 +870,7 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
     currentLoadableExceptionCount = extractedSampleCount > extractedSampleCountAtStartOfLoad ? 1
         : currentLoadableExceptionCount + 1;
     currentLoadableExceptionTimestamp = SystemClock.elapsedRealtime();
+    currentLoadableRetryDelayMs = retryPolicy.getRetryDelayMs(e, currentLoadableExceptionCount);
     maybeStartLoading();
   }
 
@@ -531,6 +881,7 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
     InternalTrackOutput sampleQueue = sampleQueues.get(id);
     if (sampleQueue == null) {
       sampleQueue = new InternalTrackOutput(allocator);
+      sampleQueue.setBackBuffer(backBufferBytes, backBufferDurationUs);
       sampleQueues.put(id, sampleQueue);
     }
     return sampleQueue;
@@ -544,6 +895,10 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
   @Override
   public void seekMap(SeekMap seekMap) {
     this.seekMap = seekMap;
+    if (startupPrefetcher != null) {
+      // Forward seeks from now on are driven by the seek map, not by skipped headers.
+      startupPrefetcher.disable();
+    }
   }
 
   @Override
@@ -553,6 +908,164 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
 
   // Internal stuff.
 
+  /**
+   * Discards the back buffers of all tracks if a buffer trim has been requested, or if the loader
+   * has been waiting for memory for a while. The latter happens when the allocator's budget has
+   * shrunk below the memory held by the back buffers, which only playback could otherwise free.
+   */
+  private void maybeDiscardBackBuffers() {
+    if (!pendingBackBufferDiscard
+        && trackBufferMonitor.getAllocatorWaitDurationMs() < BACK_BUFFER_DISCARD_WAIT_MS) {
+      return;
+    }
+    pendingBackBufferDiscard = false;
+    for (int i = 0; i < sampleQueues.size(); i++) {
+      sampleQueues.valueAt(i).discardBackBuffer();
+    }
+  }
+
+  /**
+   * Starts handling a pending request to trim the buffer, if there is one and the buffer extends
+   * beyond the requested duration.
+   */
+  private void maybeStartBufferTrim() {
+    long retainedDurationUs = pendingBufferTrimDurationUs;
+    if (retainedDurationUs == NO_BUFFER_TRIM_PENDING) {
+      return;
+    }
+    pendingBufferTrimDurationUs = NO_BUFFER_TRIM_PENDING;
+    if (isPendingReset() || bufferTrimPositionUs != NO_BUFFER_TRIM_PENDING
+        || currentLoadableException != null || !seekMap.isSeekable()) {
+      return;
+    }
+    long trimPositionUs = getBufferTrimPositionUs(downstreamPositionUs + retainedDurationUs);
+    if (trimPositionUs == NO_BUFFER_TRIM_PENDING || getBufferedPositionUs() <= trimPositionUs) {
+      return;
+    }
+    bufferTrimPositionUs = trimPositionUs;
+    if (loader.isLoading()) {
+      // The buffer is trimmed once the loader has stopped writing to the sample queues.
+      loader.cancelLoading();
+    } else {
+      trimBuffer();
+    }
+  }
+
+  /**
+   * Returns the position from which the sample queues can be trimmed so that loading can resume
+   * from a keyframe in every track, no later than the specified time.
+   *
+   * @param timeUs The latest position from which to trim.
+   * @return The position, or {@link #NO_BUFFER_TRIM_PENDING} if the queues cannot be trimmed
+   *     ahead of the playback position.
+   */
+  private long getBufferTrimPositionUs(long timeUs) {
+    long trimPositionUs = timeUs;
+    for (int i = 0; i < sampleQueues.size(); i++) {
+      InternalTrackOutput sampleQueue = sampleQueues.valueAt(i);
+      int keyframeIndex = sampleQueue.getKeyframeIndexBefore(trimPositionUs);
+      if (keyframeIndex == -1) {
+        return NO_BUFFER_TRIM_PENDING;
+      }
+      trimPositionUs = sampleQueue.getSampleTimeUs(keyframeIndex);
+    }
+    // The position may have moved back past keyframes found in earlier queues, so check again.
+    for (int i = 0; i < sampleQueues.size(); i++) {
+      if (sampleQueues.valueAt(i).getKeyframeIndexBefore(trimPositionUs) == -1) {
+        return NO_BUFFER_TRIM_PENDING;
+      }
+    }
+    return trimPositionUs > downstreamPositionUs ? trimPositionUs : NO_BUFFER_TRIM_PENDING;
+  }
+
+  /**
+   * Discards the samples from the keyframe at or before {@link #bufferTrimPositionUs} onwards in
+   * every sample queue, and resumes loading from there. Must only be called when the loader is
+   * not loading.
+   */
+  private void trimBuffer() {
+    long trimPositionUs = bufferTrimPositionUs;
+    bufferTrimPositionUs = NO_BUFFER_TRIM_PENDING;
+    int[] discardFromIndices = new int[sampleQueues.size()];
+    for (int i = 0; i < discardFromIndices.length; i++) {
+      discardFromIndices[i] = sampleQueues.valueAt(i).getKeyframeIndexBefore(trimPositionUs);
+      if (discardFromIndices[i] == -1) {
+        // Playback has consumed the samples from which loading could resume since the trim was
+        // requested. Load from the playback position instead, as for a seek.
+        lastSeekPositionUs = downstreamPositionUs;
+        for (int j = 0; j < pendingDiscontinuities.length; j++) {
+          pendingDiscontinuities[j] = true;
+        }
+        restartFrom(downstreamPositionUs);
+        return;
+      }
+    }
+    for (int i = 0; i < discardFromIndices.length; i++) {
+      sampleQueues.valueAt(i).discardUpstreamSamples(discardFromIndices[i]);
+    }
+    loadingFinished = false;
+    loadable = createLoadableFromPositionUs(trimPositionUs);
+    extractedSampleCountAtStartOfLoad = extractedSampleCount;
+    loader.startLoading(loadable, this);
+  }
+
+  /**
+   * Pauses or resumes loading as decided by the {@link LoadControl}, given the duration of media
+   * buffered ahead of the playback position for the track that has buffered the least.
+   */
+  private void updateLoadingGate() {
+    boolean preloading = preloadPositionUs != NO_PRELOAD;
+    if (loadControl == null && !preloading) {
+      return;
+    }
+    boolean paused = false;
+    if (!loadingFinished && !isPendingReset() && sampleQueues.size() > 0) {
+      long bufferedPositionUs = Long.MAX_VALUE;
+      long bufferedBytes = 0;
+      for (int i = 0; i < sampleQueues.size(); i++) {
+        InternalTrackOutput sampleQueue = sampleQueues.valueAt(i);
+        bufferedPositionUs = Math.min(bufferedPositionUs,
+            sampleQueue.getLargestParsedTimestampUs());
+        bufferedBytes += sampleQueue.getBufferedBytes();
+      }
+      long bufferedDurationUs = bufferedPositionUs == Long.MIN_VALUE ? 0
+          : bufferedPositionUs - downstreamPositionUs;
+      if (preloading) {
+        paused = bufferedDurationUs >= preloadDurationUs || bufferedBytes >= preloadBytes;
+      } else if (bufferedPositionUs != Long.MIN_VALUE) {
+        paused = !loadControl.shouldContinueLoading(bufferedDurationUs, !loadingGate.isPaused());
+      }
+    }
+    loadingGate.setPaused(paused);
+  }
+
+  /**
+   * Partitions the requested buffer size into byte quotas for the enabled tracks.
+   */
+  private void updateTrackBufferQuotas() {
+    int totalWeight = 0;
+    for (int i = 0; i < trackEnabledStates.length; i++) {
+      if (trackEnabledStates[i]) {
+        totalWeight += getTrackBufferWeight(i);
+      }
+    }
+    for (int i = 0; i < trackEnabledStates.length; i++) {
+      sampleQueues.valueAt(i).bufferQuotaBytes = trackEnabledStates[i]
+          ? (long) requestedBufferSize * getTrackBufferWeight(i) / totalWeight : 0;
+    }
+    trackBufferMonitor.onQuotasChanged();
+  }
+
+  private int getTrackBufferWeight(int track) {
+    return MimeTypes.isVideo(mediaFormats[track].mimeType) ? VIDEO_TRACK_BUFFER_WEIGHT
+        : OTHER_TRACK_BUFFER_WEIGHT;
+  }
+
+  private int getEffectiveLoadPriority() {
+    int priority = loadPriority;
+    return refillingAfterSeek ? Math.min(priority, LoadScheduler.PRIORITY_SEEK) : priority;
+  }
+
   private void restartFrom(long positionUs) {
     pendingResetPositionUs = positionUs;
     loadingFinished = false;
@@ -569,18 +1082,27 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
       return;
     }
 
+    if (loadSuspended) {
+      // Resume the suspended load from the position at which it stopped, as for a retry.
+      loadSuspended = false;
+      loadable.resume();
+      loader.startLoading(loadable, this);
+      return;
+    }
+
     if (currentLoadableException != null) {
       if (isCurrentLoadableExceptionFatal()) {
         return;
       }
       Assertions.checkState(loadable != null);
       long elapsedMillis = SystemClock.elapsedRealtime() - currentLoadableExceptionTimestamp;
-      if (elapsedMillis >= getRetryDelayMillis(currentLoadableExceptionCount)) {
+      if (elapsedMillis >= currentLoadableRetryDelayMs) {
         currentLoadableException = null;
-        if (!prepared) {
+        if (!prepared && (seekMap == null || !seekMap.isSeekable())) {
           // We don't know whether we're playing an on-demand or a live stream. For a live stream
           // we need to load from the start, as outlined below. Since we might be playing a live
-          // stream, play it safe and load from the start.
+          // stream, play it safe and load from the start. A seekable stream is on-demand, and is
+          // resumed below even before preparation completes.
           for (int i = 0; i < sampleQueues.size(); i++) {
             sampleQueues.valueAt(i).clear();
           }
@@ -600,7 +1122,7 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
           havePendingNextSampleUs = true;
         } else {
           // We're playing a seekable on-demand stream. Resume the current loadable, which will
-          // request data starting from the point it left off.
+          // request data starting from the byte position at which it left off.
         }
         extractedSampleCountAtStartOfLoad = extractedSampleCount;
         loader.startLoading(loadable, this);
@@ -631,13 +1153,13 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
   }
 
   private ExtractingLoadable createLoadableFromStart() {
-    return new ExtractingLoadable(uri, dataSource, extractorHolder, allocator, requestedBufferSize,
-        0);
+    return new ExtractingLoadable(uri, dataSource, extractorHolder, allocator, trackBufferMonitor,
+        0, startupPrefetcher, loadingGate);
   }
 
   private ExtractingLoadable createLoadableFromPositionUs(long positionUs) {
-    return new ExtractingLoadable(uri, dataSource, extractorHolder, allocator, requestedBufferSize,
-        seekMap.getPosition(positionUs));
+    return new ExtractingLoadable(uri, dataSource, extractorHolder, allocator, trackBufferMonitor,
+        seekMap.getPosition(positionUs), null, loadingGate);
   }
 
   private boolean haveFormatsForAllTracks() {
@@ -662,8 +1184,11 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
       sampleQueues.valueAt(i).clear();
     }
     loadable = null;
+    loadSuspended = false;
     currentLoadableException = null;
     currentLoadableExceptionCount = 0;
+    bufferTrimPositionUs = NO_BUFFER_TRIM_PENDING;
+    loadingGate.setPaused(false);
   }
 
   private boolean isPendingReset() {
@@ -671,11 +1196,19 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
   }
 
   private boolean isCurrentLoadableExceptionFatal() {
-    return currentLoadableException instanceof UnrecognizedInputFormatException;
+    return currentLoadableException instanceof UnrecognizedInputFormatException
+        || currentLoadableRetryDelayMs == RetryPolicy.DONT_RETRY;
   }
 
-  private long getRetryDelayMillis(long errorCount) {
-    return Math.min((errorCount - 1) * 1000, 5000);
+  /**
+   * Resets the count of consecutive load errors once a load that was retried has extracted samples,
+   * so that a later error is retried as promptly as the first.
+   */
+  private void maybeResetLoadableExceptionCount() {
+    if (currentLoadableException == null && currentLoadableExceptionCount > 0
+        && extractedSampleCount > extractedSampleCountAtStartOfLoad) {
+      currentLoadableExceptionCount = 0;
+    }
   }
 
   /**
@@ -684,6 +1217,9 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
    */
   private class InternalTrackOutput extends DefaultTrackOutput {
 
+    // Written by the consuming thread.
+    private volatile long bufferQuotaBytes;
+
     public InternalTrackOutput(Allocator allocator) {
       super(allocator);
     }
@@ -696,29 +1232,152 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
 
   }
 
+  /**
+   * Applies back-pressure to the loading thread from the buffers of the enabled tracks.
+   * <p>
+   * A track is full once it holds its byte quota, or {@link #TRACK_BUFFER_DURATION_QUOTA_MS} of
+   * media ahead of the playback position. Loading blocks while every enabled track is full. Since
+   * the tracks are interleaved in a single stream, a track below its quota keeps loading going even
+   * while the others are full (up to {@code maxBufferSize} in total), so that a track with a thin
+   * buffer is never held back by a track that has filled the requested buffer size. While no track
+   * is enabled, loading blocks once the requested buffer size is reached.
+   * <p>
+   * Data retained in the back buffers is not counted against {@code maxBufferSize}, so that the
+   * allocator only blocks loading for it when its budget is too small to hold it. The time spent
+   * waiting for the allocator is exposed so that the back buffers can then be discarded.
+   */
+  private final class TrackBufferMonitor {
+
+    private final long durationQuotaUs;
+
+    private volatile long playbackPositionUs;
+    private volatile boolean waiting;
+    private volatile long allocatorWaitStartMs;
+
+    public TrackBufferMonitor() {
+      durationQuotaUs = TRACK_BUFFER_DURATION_QUOTA_MS * 1000L;
+    }
+
+    // Called by the consuming thread.
+
+    public void setPlaybackPositionUs(long positionUs) {
+      playbackPositionUs = positionUs;
+      notifyIfWaiting();
+    }
+
+    public void onQuotasChanged() {
+      notifyIfWaiting();
+    }
+
+    /**
+     * Returns how long the loading thread has been waiting for the allocator, or 0 if it is not.
+     */
+    public long getAllocatorWaitDurationMs() {
+      long waitStartMs = allocatorWaitStartMs;
+      return waitStartMs == 0 ? 0 : SystemClock.elapsedRealtime() - waitStartMs;
+    }
+
+    // Called by the loading thread.
+
+    public void blockWhileTracksFull() throws InterruptedException {
+      if (!areTracksFull()) {
+        return;
+      }
+      synchronized (this) {
+        waiting = true;
+        try {
+          while (areTracksFull()) {
+            wait();
+          }
+        } finally {
+          waiting = false;
+        }
+      }
+    }
+
+    /**
+     * Blocks while the allocator holds more than {@code maxBufferSize}, plus what the back buffers
+     * of the tracks may retain, or while it is over its budget. Each track may also hold a partly
+     * used allocation at either end of its buffer.
+     */
+    public void blockWhileAllocatorFull(Allocator allocator) throws InterruptedException {
+      int allocationLength = allocator.getIndividualAllocationLength();
+      long limit = maxBufferSize
+          + (long) (backBufferBytes + 2 * allocationLength) * sampleQueues.size();
+      allocatorWaitStartMs = SystemClock.elapsedRealtime();
+      try {
+        allocator.blockWhileTotalBytesAllocatedExceeds((int) Math.min(limit, Integer.MAX_VALUE));
+      } finally {
+        allocatorWaitStartMs = 0;
+      }
+    }
+
+    private boolean areTracksFull() {
+      long positionUs = playbackPositionUs;
+      boolean haveQuotas = false;
+      boolean haveTrackBelowQuota = false;
+      long bufferedBytes = 0;
+      for (int i = 0; i < sampleQueues.size(); i++) {
+        InternalTrackOutput sampleQueue = sampleQueues.valueAt(i);
+        long trackBufferedBytes = sampleQueue.getBufferedBytes();
+        bufferedBytes += trackBufferedBytes;
+        long quotaBytes = sampleQueue.bufferQuotaBytes;
+        if (quotaBytes > 0) {
+          haveQuotas = true;
+          long largestParsedTimestampUs = sampleQueue.getLargestParsedTimestampUs();
+          if (trackBufferedBytes < quotaBytes && (largestParsedTimestampUs == Long.MIN_VALUE
+              || largestParsedTimestampUs - positionUs < durationQuotaUs)) {
+            haveTrackBelowQuota = true;
+          }
+        }
+      }
+      if (bufferedBytes >= maxBufferSize) {
+        // The back buffers are not counted by the allocator's limit, so cap the data ahead here.
+        return true;
+      }
+      return haveQuotas ? !haveTrackBelowQuota : bufferedBytes >= requestedBufferSize;
+    }
+
+    private void notifyIfWaiting() {
+      if (waiting) {
+        synchronized (this) {
+          notifyAll();
+        }
+      }
+    }
+
+  }
+
   /**
    * Loads the media stream and extracts sample data from it.
    */
   private static class ExtractingLoadable implements Loadable {
 
+    private static final long NO_PREFETCH = -1;
+
     private final Uri uri;
     private final DataSource dataSource;
     private final ExtractorHolder extractorHolder;
     private final Allocator allocator;
-    private final int requestedBufferSize;
+    private final TrackBufferMonitor trackBufferMonitor;
     private final PositionHolder positionHolder;
+    private final StartupPrefetcher startupPrefetcher;
+    private final LoadingGate loadingGate;
 
     private volatile boolean loadCanceled;
 
     private boolean pendingExtractorSeek;
 
     public ExtractingLoadable(Uri uri, DataSource dataSource, ExtractorHolder extractorHolder,
-        Allocator allocator, int requestedBufferSize, long position) {
+        Allocator allocator, TrackBufferMonitor trackBufferMonitor, long position,
+        StartupPrefetcher startupPrefetcher, LoadingGate loadingGate) {
       this.uri = Assertions.checkNotNull(uri);
       this.dataSource = Assertions.checkNotNull(dataSource);
       this.extractorHolder = Assertions.checkNotNull(extractorHolder);
       this.allocator = Assertions.checkNotNull(allocator);
-      this.requestedBufferSize = requestedBufferSize;
+      this.trackBufferMonitor = trackBufferMonitor;
+      this.startupPrefetcher = startupPrefetcher;
+      this.loadingGate = loadingGate;
       positionHolder = new PositionHolder();
       positionHolder.position = position;
       pendingExtractorSeek = true;
@@ -729,6 +1388,13 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
       loadCanceled = true;
     }
 
+    /**
+     * Allows a canceled load to be started again, continuing from where it stopped.
+     */
+    public void resume() {
+      loadCanceled = false;
+    }
+
     @Override
     public boolean isLoadCanceled() {
       return loadCanceled;
@@ -738,9 +1404,20 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
     public void load() throws IOException, InterruptedException {
       int result = Extractor.RESULT_CONTINUE;
       while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
+        if (loadingGate.isPaused()) {
+          // Wait with the stream closed, so that its connection is idle while loading is paused.
+          LoadScheduler.beginBlocking();
+          loadingGate.blockWhilePaused();
+          LoadScheduler.endBlocking();
+        }
         ExtractorInput input = null;
+        long prefetchPosition = NO_PREFETCH;
         try {
           long position = positionHolder.position;
+          if (startupPrefetcher != null) {
+            // Once the prefetch has finished, the data it has loaded is read from the cache.
+            startupPrefetcher.blockWhilePrefetching(position);
+          }
           long length = dataSource.open(new DataSpec(uri, position, C.LENGTH_UNBOUNDED, null));
           if (length != C.LENGTH_UNBOUNDED) {
             length += position;
@@ -751,22 +1428,205 @@ public final class ExtractorSampleSource implements SampleSource, SampleSourceRe
             extractor.seek();
             pendingExtractorSeek = false;
           }
-          while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
-            allocator.blockWhileTotalBytesAllocatedExceeds(requestedBufferSize);
+          while (result == Extractor.RESULT_CONTINUE && !loadCanceled
+              && !loadingGate.isPaused()) {
+            // Let a waiting load have the scheduler's slot if the buffer stays full.
+            LoadScheduler.beginBlocking();
+            trackBufferMonitor.blockWhileTracksFull();
+            trackBufferMonitor.blockWhileAllocatorFull(allocator);
+            LoadScheduler.endBlocking();
+            LoadScheduler.yieldIfPreempted();
             result = extractor.read(input, positionHolder);
-            // TODO: Implement throttling to stop us from buffering data too often.
           }
         } finally {
           if (result == Extractor.RESULT_SEEK) {
+            if (startupPrefetcher != null && input != null && input.getPosition() > 0
+                && positionHolder.position > input.getPosition()) {
+              // Fetch the data being skipped in parallel with the seek, since it's likely that the
+              // extractor will seek back to it once it has read what it's seeking to. A seek from
+              // the very start skips metadata that the extractor already has (e.g. a cached moov
+              // atom), so it will not seek back.
+              prefetchPosition = input.getPosition();
+            }
             result = Extractor.RESULT_CONTINUE;
           } else if (input != null) {
             positionHolder.position = input.getPosition();
           }
           dataSource.close();
         }
+        if (prefetchPosition != NO_PREFETCH && startupPrefetcher.maybePrefetch(prefetchPosition)) {
+          // The cache lets one source at a time write a stream. Let the prefetch take the lock that
+          // this load has just released before reopening, so that the prefetched data is cached.
+          startupPrefetcher.blockUntilOpened();
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Blocks the loading thread while loading is paused by a {@link LoadControl}.
+   */
+  private static final class LoadingGate {
+
+    private volatile boolean paused;
+
+    public boolean isPaused() {
+      return paused;
+    }
+
+    public void setPaused(boolean paused) {
+      if (this.paused != paused) {
+        synchronized (this) {
+          this.paused = paused;
+          notifyAll();
+        }
       }
     }
 
+    public synchronized void blockWhilePaused() throws InterruptedException {
+      while (paused) {
+        wait();
+      }
+    }
+
+  }
+
+  /**
+   * Fetches data skipped by the first forward seek made while reading the stream's headers, on a
+   * background thread.
+   * <p>
+   * For example, when an MP4 file's moov atom follows its mdat atom, the extractor seeks past the
+   * mdat to read the moov, and then seeks back to read the first samples. Prefetching the start of
+   * the mdat while the moov is being fetched and parsed means that the data is already available
+   * (e.g. in a shared cache) by the time the extractor seeks back to it.
+   */
+  private static final class StartupPrefetcher implements Runnable {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    // Shared by all prefetchers. Each prefetch gets a thread of its own, since loads wait for
+    // their prefetch to open.
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "Loader:StartupPrefetcher");
+          }
+        });
+
+    private final Uri uri;
+    private final DataSource dataSource;
+    private final int prefetchLength;
+
+    private volatile boolean enabled;
+    private volatile boolean released;
+    private boolean started;
+    private boolean opened;
+    private boolean finished;
+    private long prefetchPosition;
+
+    public StartupPrefetcher(Uri uri, DataSource dataSource, int prefetchLength) {
+      this.uri = uri;
+      this.dataSource = dataSource;
+      this.prefetchLength = prefetchLength;
+      enabled = true;
+    }
+
+    /**
+     * Starts prefetching from the specified position, if prefetching is still enabled and hasn't
+     * already been started.
+     *
+     * @param position The position from which to prefetch.
+     * @return Whether a prefetch was started.
+     */
+    public synchronized boolean maybePrefetch(long position) {
+      if (!enabled || released || started) {
+        return false;
+      }
+      started = true;
+      prefetchPosition = position;
+      EXECUTOR.execute(this);
+      return true;
+    }
+
+    /**
+     * Blocks until the prefetch started by {@link #maybePrefetch(long)} has opened its data source,
+     * or has failed to open it.
+     *
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    public synchronized void blockUntilOpened() throws InterruptedException {
+      while (!opened) {
+        wait();
+      }
+    }
+
+    /**
+     * Blocks while a prefetch is loading the range that contains the specified position. The
+     * prefetch holds the cache's lock for the stream until it finishes, so a load opened in its
+     * range would otherwise load the data again rather than reading it from the cache.
+     *
+     * @param position The position from which the load is about to be opened.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    public synchronized void blockWhilePrefetching(long position) throws InterruptedException {
+      while (started && !finished && position >= prefetchPosition
+          && position < prefetchPosition + prefetchLength) {
+        wait();
+      }
+    }
+
+    /**
+     * Prevents any further prefetches from being started.
+     */
+    public void disable() {
+      enabled = false;
+    }
+
+    /**
+     * Stops any ongoing prefetch and prevents any further prefetches from being started.
+     */
+    public void release() {
+      enabled = false;
+      released = true;
+    }
+
+    @Override
+    public void run() {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      try {
+        try {
+          dataSource.open(new DataSpec(uri, prefetchPosition, prefetchLength, null));
+        } finally {
+          onOpened();
+        }
+        while (!released && dataSource.read(buffer, 0, BUFFER_SIZE) != C.RESULT_END_OF_INPUT) {
+          // Do nothing. The data source is responsible for retaining the data.
+        }
+      } catch (IOException e) {
+        // Do nothing. The data will be loaded when the extractor seeks back to it.
+        Log.w(TAG, "Startup prefetch failed", e);
+      } finally {
+        try {
+          dataSource.close();
+        } catch (IOException e) {
+          // Do nothing.
+        }
+        onFinished();
+      }
+    }
+
+    private synchronized void onOpened() {
+      opened = true;
+      notifyAll();
+    }
+
+    private synchronized void onFinished() {
+      finished = true;
+      notifyAll();
+    }
+
   }
 
   /**
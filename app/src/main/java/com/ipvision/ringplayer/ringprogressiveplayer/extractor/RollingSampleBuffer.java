@@ -26,28 +26,45 @@ import com.ipvision.ringplayer.ringprogressiveplayer.util.ParsableByteArray;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.LinkedBlockingDeque;
 
 /**
  * A rolling buffer of sample data and corresponding sample information.
+ * <p>
+ * Allocations are held in a ring indexed by absolute allocation index, so that the allocation
+ * holding any buffered position is found in constant time. The ring is written by the loading
+ * thread and read by the consuming thread without locking.
+ * <p>
+ * Samples that have been read can be retained in a back buffer, within a byte and a duration cap,
+ * so that {@link #skipToKeyframeBefore(long)} can rewind to them without the data being loaded
+ * again.
  */
 /* package */ final class RollingSampleBuffer {
 
   private static final int INITIAL_SCRATCH_SIZE = 32;
+  // Must be a power of two.
+  private static final int INITIAL_ALLOCATION_CAPACITY = 64;
 
   private final Allocator allocator;
   private final int allocationLength;
 
   private final InfoQueue infoQueue;
-  private final LinkedBlockingDeque<Allocation> dataQueue;
   private final SampleExtrasHolder extrasHolder;
   private final ParsableByteArray scratch;
 
-  // Accessed only by the consuming thread.
-  private long totalBytesDropped;
-
+  // Written only by the consuming thread.
+  private volatile long totalBytesDropped;
+  private volatile long readPosition;
+  private volatile long backBufferPosition;
+  private volatile int maxBackBufferBytes;
+  private volatile long maxBackBufferDurationUs;
+
+  // Written only by the loading thread.
+  private volatile long totalBytesWritten;
+  // The allocation with absolute index i is at i modulo the length of the array. Replaced only by
+  // the loading thread, when it grows the ring.
+  private volatile Allocation[] allocations;
+  private volatile int allocationCount;
   // Accessed only by the loading thread.
-  private long totalBytesWritten;
   private Allocation lastAllocation;
   private int lastAllocationOffset;
 
@@ -58,7 +75,7 @@ import java.util.concurrent.LinkedBlockingDeque;
     this.allocator = allocator;
     allocationLength = allocator.getIndividualAllocationLength();
     infoQueue = new InfoQueue();
-    dataQueue = new LinkedBlockingDeque<>();
+    allocations = new Allocation[INITIAL_ALLOCATION_CAPACITY];
     extrasHolder = new SampleExtrasHolder();
     scratch = new ParsableByteArray(INITIAL_SCRATCH_SIZE);
     lastAllocationOffset = allocationLength;
@@ -71,11 +88,16 @@ import java.util.concurrent.LinkedBlockingDeque;
    */
   public void clear() {
     infoQueue.clear();
-    while (!dataQueue.isEmpty()) {
-      allocator.release(dataQueue.remove());
+    int mask = allocations.length - 1;
+    for (int i = (int) (totalBytesDropped / allocationLength); i < allocationCount; i++) {
+      allocator.release(allocations[i & mask]);
+      allocations[i & mask] = null;
     }
+    allocationCount = 0;
     totalBytesDropped = 0;
     totalBytesWritten = 0;
+    readPosition = 0;
+    backBufferPosition = 0;
     lastAllocation = null;
     lastAllocationOffset = allocationLength;
   }
@@ -109,20 +131,56 @@ import java.util.concurrent.LinkedBlockingDeque;
     int allocationIndex = relativePosition / allocationLength;
     int allocationOffset = relativePosition % allocationLength;
     // We want to discard any allocations after the one at allocationIdnex.
-    int allocationDiscardCount = dataQueue.size() - allocationIndex - 1;
+    int firstAllocationIndex = (int) (totalBytesDropped / allocationLength);
+    int allocationDiscardCount = allocationCount - firstAllocationIndex - allocationIndex - 1;
     if (allocationOffset == 0) {
       // If the allocation at allocationIndex is empty, we should discard that one too.
       allocationDiscardCount++;
     }
     // Discard the allocations.
+    int mask = allocations.length - 1;
     for (int i = 0; i < allocationDiscardCount; i++) {
-      allocator.release(dataQueue.removeLast());
+      allocationCount--;
+      allocator.release(allocations[allocationCount & mask]);
+      allocations[allocationCount & mask] = null;
     }
     // Update lastAllocation and lastAllocationOffset to reflect the new position.
-    lastAllocation = dataQueue.peekLast();
+    lastAllocation = allocationCount > firstAllocationIndex
+        ? allocations[(allocationCount - 1) & mask] : null;
     lastAllocationOffset = allocationOffset == 0 ? allocationLength : allocationOffset;
   }
 
+  // Called by either thread.
+
+  /**
+   * Returns the number of bytes of sample data in the buffer that have yet to be read. Data
+   * retained in the back buffer is not included.
+   */
+  public long getBufferedBytes() {
+    return totalBytesWritten - readPosition;
+  }
+
+  /**
+   * Returns the number of bytes of read sample data retained in the back buffer.
+   */
+  public long getBackBufferBytes() {
+    return Math.max(0, readPosition - backBufferPosition);
+  }
+
+  /**
+   * Sets the maximum amount of read sample data to retain, so that it can be rewound to. By
+   * default no data is retained. The retained samples always start with a keyframe.
+   * <p>
+   * May be called from any thread. The caps are applied the next time a sample is read or skipped.
+   *
+   * @param maxBytes The maximum number of bytes of read sample data to retain.
+   * @param maxDurationUs The maximum duration of read samples to retain, in microseconds.
+   */
+  public void setBackBuffer(int maxBytes, long maxDurationUs) {
+    maxBackBufferBytes = maxBytes;
+    maxBackBufferDurationUs = maxDurationUs;
+  }
+
   // Called by the consuming thread.
 
   /**
@@ -132,6 +190,44 @@ import java.util.concurrent.LinkedBlockingDeque;
     return infoQueue.getReadIndex();
   }
 
+  /**
+   * Discards all read sample data retained in the back buffer, returning its allocations to the
+   * allocator.
+   */
+  public void discardBackBuffer() {
+    backBufferPosition = infoQueue.discardBackBuffer(readPosition, 0, 0);
+    dropDownstreamTo(backBufferPosition);
+  }
+
+  /**
+   * Returns the absolute index of the last keyframe in the buffer whose timestamp is less than or
+   * equal to the specified time.
+   *
+   * @param timeUs The time.
+   * @return The absolute index of the keyframe, or -1 if there is no such keyframe in the buffer.
+   */
+  public int getKeyframeIndexBefore(long timeUs) {
+    return infoQueue.getKeyframeIndexBefore(timeUs);
+  }
+
+  /**
+   * Returns the timestamp of a sample in the buffer.
+   *
+   * @param index The absolute index of the sample.
+   * @return The timestamp of the sample.
+   */
+  public long getSampleTimeUs(int index) {
+    return infoQueue.getSampleTimeUs(index);
+  }
+
+  /**
+   * Returns the largest timestamp of any sample in the buffer, or {@link Long#MIN_VALUE} if the
+   * buffer is empty.
+   */
+  public long getLargestQueuedTimestampUs() {
+    return infoQueue.getLargestQueuedTimestampUs();
+  }
+
   /**
    * Fills {@code holder} with information about the current sample, but does not write its data.
    * <p>
@@ -150,11 +246,12 @@ import java.util.concurrent.LinkedBlockingDeque;
    */
   public void skipSample() {
     long nextOffset = infoQueue.moveToNextSample();
-    dropDownstreamTo(nextOffset);
+    setReadPosition(nextOffset);
   }
 
   /**
    * Attempts to skip to the keyframe before the specified time, if it's present in the buffer.
+   * The keyframe may be ahead of the current sample, or behind it in the back buffer.
    *
    * @param timeUs The seek time.
    * @return True if the skip was successful. False otherwise.
@@ -164,7 +261,7 @@ import java.util.concurrent.LinkedBlockingDeque;
     if (nextOffset == -1) {
       return false;
     }
-    dropDownstreamTo(nextOffset);
+    setReadPosition(nextOffset);
     return true;
   }
 
@@ -190,10 +287,24 @@ import java.util.concurrent.LinkedBlockingDeque;
     readData(extrasHolder.offset, sampleHolder.data, sampleHolder.size);
     // Advance the read head.
     long nextOffset = infoQueue.moveToNextSample();
-    dropDownstreamTo(nextOffset);
+    setReadPosition(nextOffset);
     return true;
   }
 
+  /**
+   * Moves the read position, and drops any data that is neither ahead of it nor retained in the
+   * back buffer.
+   *
+   * @param absolutePosition The absolute position of the first byte of the current sample, or of
+   *     the end of the read data if there is no current sample.
+   */
+  private void setReadPosition(long absolutePosition) {
+    readPosition = absolutePosition;
+    backBufferPosition = infoQueue.discardBackBuffer(absolutePosition, maxBackBufferBytes,
+        maxBackBufferDurationUs);
+    dropDownstreamTo(backBufferPosition);
+  }
+
   /**
    * Reads encryption data for the current sample.
    * <p>
@@ -276,10 +387,9 @@ import java.util.concurrent.LinkedBlockingDeque;
   private void readData(long absolutePosition, ByteBuffer target, int length) {
     int remaining = length;
     while (remaining > 0) {
-      dropDownstreamTo(absolutePosition);
-      int positionInAllocation = (int) (absolutePosition - totalBytesDropped);
+      Allocation allocation = getAllocation(absolutePosition);
+      int positionInAllocation = (int) (absolutePosition % allocationLength);
       int toCopy = Math.min(remaining, allocationLength - positionInAllocation);
-      Allocation allocation = dataQueue.peek();
       target.put(allocation.data, allocation.translateOffset(positionInAllocation), toCopy);
       absolutePosition += toCopy;
       remaining -= toCopy;
@@ -297,10 +407,9 @@ import java.util.concurrent.LinkedBlockingDeque;
   private void readData(long absolutePosition, byte[] target, int length) {
     int bytesRead = 0;
     while (bytesRead < length) {
-      dropDownstreamTo(absolutePosition);
-      int positionInAllocation = (int) (absolutePosition - totalBytesDropped);
+      Allocation allocation = getAllocation(absolutePosition);
+      int positionInAllocation = (int) (absolutePosition % allocationLength);
       int toCopy = Math.min(length - bytesRead, allocationLength - positionInAllocation);
-      Allocation allocation = dataQueue.peek();
       System.arraycopy(allocation.data, allocation.translateOffset(positionInAllocation), target,
           bytesRead, toCopy);
       absolutePosition += toCopy;
@@ -318,11 +427,27 @@ import java.util.concurrent.LinkedBlockingDeque;
     int relativePosition = (int) (absolutePosition - totalBytesDropped);
     int allocationIndex = relativePosition / allocationLength;
     for (int i = 0; i < allocationIndex; i++) {
-      allocator.release(dataQueue.remove());
+      Allocation[] allocations = this.allocations;
+      int index = (int) (totalBytesDropped / allocationLength) & (allocations.length - 1);
+      allocator.release(allocations[index]);
+      allocations[index] = null;
       totalBytesDropped += allocationLength;
     }
   }
 
+  /**
+   * Returns the allocation that holds the data at an absolute position, which must be buffered.
+   * The position of the data within the allocation is the absolute position modulo the allocation
+   * length.
+   *
+   * @param absolutePosition The absolute position.
+   * @return The allocation.
+   */
+  private Allocation getAllocation(long absolutePosition) {
+    Allocation[] allocations = this.allocations;
+    return allocations[(int) (absolutePosition / allocationLength) & (allocations.length - 1)];
+  }
+
   /**
    * Ensure that the passed {@link ParsableByteArray} is of at least the specified limit.
    */
@@ -437,38 +562,65 @@ import java.util.concurrent.LinkedBlockingDeque;
     if (lastAllocationOffset == allocationLength) {
       lastAllocationOffset = 0;
       lastAllocation = allocator.allocate();
-      dataQueue.add(lastAllocation);
+      addAllocation(lastAllocation);
     }
     return Math.min(length, allocationLength - lastAllocationOffset);
   }
 
+  /**
+   * Adds an allocation to the end of the ring, doubling the capacity of the ring if it's full.
+   * <p>
+   * The allocation is published to the consuming thread by the volatile writes that commit the
+   * data appended to it. When the ring grows, the allocations that are still held are copied to the
+   * new array before it's published. The consuming thread may concurrently drop allocations from
+   * the front of the ring, in which case stale references may be copied to slots that it no longer
+   * reads.
+   *
+   * @param allocation The allocation to add.
+   */
+  private void addAllocation(Allocation allocation) {
+    Allocation[] allocations = this.allocations;
+    int firstAllocationIndex = (int) (totalBytesDropped / allocationLength);
+    if (allocationCount - firstAllocationIndex == allocations.length) {
+      Allocation[] newAllocations = new Allocation[allocations.length * 2];
+      for (int i = firstAllocationIndex; i < allocationCount; i++) {
+        newAllocations[i & (newAllocations.length - 1)] = allocations[i & (allocations.length - 1)];
+      }
+      this.allocations = newAllocations;
+      allocations = newAllocations;
+    }
+    allocations[allocationCount & (allocations.length - 1)] = allocation;
+    allocationCount++;
+  }
+
   /**
    * Holds information about the samples in the rolling buffer.
+   * <p>
+   * The queue has a single producer (the loading thread) and a single consumer, and is not locked.
+   * Sample information is stored in a linked list of fixed size chunks, which grows without
+   * copying, and from which the consumer unlinks chunks once it no longer needs them. The producer
+   * writes the information of a sample before publishing it with a volatile write of the write
+   * index, and the consumer reads no further than the write index it last read.
    */
   private static final class InfoQueue {
 
-    private static final int SAMPLE_CAPACITY_INCREMENT = 1000;
-
-    private int capacity;
-
-    private long[] offsets;
-    private int[] sizes;
-    private int[] flags;
-    private long[] timesUs;
-    private byte[][] encryptionKeys;
-
-    private int queueSize;
-    private int absoluteReadIndex;
-    private int relativeReadIndex;
-    private int relativeWriteIndex;
+    private static final int CHUNK_SIZE = 1024;
+
+    // Accessed only by the loading thread, or by the consuming thread when there is no loading
+    // thread.
+    private SampleChunk writeChunk;
+    private long committedPosition;
+    // Written only by the loading thread, or by the consuming thread when there is no loading
+    // thread.
+    private volatile int writeIndex;
+    // Accessed only by the consuming thread.
+    private SampleChunk startChunk;
+    private SampleChunk readChunk;
+    private int startIndex;
+    private int readIndex;
 
     public InfoQueue() {
-      capacity = SAMPLE_CAPACITY_INCREMENT;
-      offsets = new long[capacity];
-      timesUs = new long[capacity];
-      flags = new int[capacity];
-      sizes = new int[capacity];
-      encryptionKeys = new byte[capacity][];
+      clear();
     }
 
     // Called by the consuming thread, but only when there is no loading thread.
@@ -477,17 +629,20 @@ import java.util.concurrent.LinkedBlockingDeque;
      * Clears the queue.
      */
     public void clear() {
-      absoluteReadIndex = 0;
-      relativeReadIndex = 0;
-      relativeWriteIndex = 0;
-      queueSize = 0;
+      startChunk = new SampleChunk(0);
+      readChunk = startChunk;
+      writeChunk = startChunk;
+      startIndex = 0;
+      readIndex = 0;
+      writeIndex = 0;
+      committedPosition = 0;
     }
 
     /**
      * Returns the current absolute write index.
      */
     public int getWriteIndex() {
-      return absoluteReadIndex + queueSize;
+      return writeIndex;
     }
 
     /**
@@ -497,21 +652,18 @@ import java.util.concurrent.LinkedBlockingDeque;
      * @return The reduced total number of bytes written, after the samples have been discarded.
      */
     public long discardUpstreamSamples(int discardFromIndex) {
-      int discardCount = getWriteIndex() - discardFromIndex;
-      Assertions.checkArgument(0 <= discardCount && discardCount <= queueSize);
+      int discardCount = writeIndex - discardFromIndex;
+      Assertions.checkArgument(0 <= discardCount && readIndex <= discardFromIndex);
 
       if (discardCount == 0) {
-        if (absoluteReadIndex == 0) {
-          // queueSize == absoluteReadIndex == 0, so nothing has been written to the queue.
-          return 0;
-        }
-        int lastWriteIndex = (relativeWriteIndex == 0 ? capacity : relativeWriteIndex) - 1;
-        return offsets[lastWriteIndex] + sizes[lastWriteIndex];
+        return committedPosition;
       }
 
-      queueSize -= discardCount;
-      relativeWriteIndex = (relativeWriteIndex + capacity - discardCount) % capacity;
-      return offsets[relativeWriteIndex];
+      writeChunk = getChunk(readChunk, discardFromIndex);
+      writeChunk.next = null;
+      writeIndex = discardFromIndex;
+      committedPosition = writeChunk.offsets[discardFromIndex - writeChunk.firstIndex];
+      return committedPosition;
     }
 
     // Called by the consuming thread.
@@ -520,7 +672,55 @@ import java.util.concurrent.LinkedBlockingDeque;
      * Returns the current absolute read index.
      */
     public int getReadIndex() {
-      return absoluteReadIndex;
+      return readIndex;
+    }
+
+    /**
+     * Returns the absolute index of the last keyframe in the queue whose timestamp is less than or
+     * equal to the specified time, or -1 if there is no such keyframe.
+     *
+     * @param timeUs The time.
+     * @return The absolute index of the keyframe, or -1.
+     */
+    public int getKeyframeIndexBefore(long timeUs) {
+      int writeIndex = this.writeIndex;
+      int keyframeIndex = -1;
+      SampleChunk chunk = readChunk;
+      for (int i = readIndex; i < writeIndex; i++) {
+        chunk = getChunk(chunk, i);
+        int slot = i - chunk.firstIndex;
+        if (chunk.timesUs[slot] <= timeUs && (chunk.flags[slot] & C.SAMPLE_FLAG_SYNC) != 0) {
+          keyframeIndex = i;
+        }
+      }
+      return keyframeIndex;
+    }
+
+    /**
+     * Returns the timestamp of the sample at the specified absolute index, which must be queued.
+     *
+     * @param absoluteIndex The absolute index of the sample.
+     * @return The timestamp of the sample.
+     */
+    public long getSampleTimeUs(int absoluteIndex) {
+      Assertions.checkArgument(readIndex <= absoluteIndex && absoluteIndex < writeIndex);
+      SampleChunk chunk = getChunk(readChunk, absoluteIndex);
+      return chunk.timesUs[absoluteIndex - chunk.firstIndex];
+    }
+
+    /**
+     * Returns the largest timestamp of any queued sample, or {@link Long#MIN_VALUE} if the queue is
+     * empty.
+     */
+    public long getLargestQueuedTimestampUs() {
+      int writeIndex = this.writeIndex;
+      long largestTimestampUs = Long.MIN_VALUE;
+      SampleChunk chunk = readChunk;
+      for (int i = readIndex; i < writeIndex; i++) {
+        chunk = getChunk(chunk, i);
+        largestTimestampUs = Math.max(largestTimestampUs, chunk.timesUs[i - chunk.firstIndex]);
+      }
+      return largestTimestampUs;
     }
 
     /**
@@ -535,127 +735,177 @@ import java.util.concurrent.LinkedBlockingDeque;
      * @param extrasHolder The holder into which extra sample information should be written.
      * @return True if the holders were filled. False if there is no current sample.
      */
-    public synchronized boolean peekSample(SampleHolder holder, SampleExtrasHolder extrasHolder) {
-      if (queueSize == 0) {
+    public boolean peekSample(SampleHolder holder, SampleExtrasHolder extrasHolder) {
+      if (readIndex == writeIndex) {
         return false;
       }
-      holder.timeUs = timesUs[relativeReadIndex];
-      holder.size = sizes[relativeReadIndex];
-      holder.flags = flags[relativeReadIndex];
-      extrasHolder.offset = offsets[relativeReadIndex];
-      extrasHolder.encryptionKeyId = encryptionKeys[relativeReadIndex];
+      int slot = readIndex - readChunk.firstIndex;
+      holder.timeUs = readChunk.timesUs[slot];
+      holder.size = readChunk.sizes[slot];
+      holder.flags = readChunk.flags[slot];
+      extrasHolder.offset = readChunk.offsets[slot];
+      extrasHolder.encryptionKeyId = readChunk.encryptionKeys[slot];
       return true;
     }
 
     /**
-     * Advances the read index to the next sample.
+     * Advances the read index to the next sample. The current sample is moved to the back buffer.
+     *
+     * @return The absolute position of the first byte in the rolling buffer that has yet to be read
+     *     after advancing the index.
+     */
+    public long moveToNextSample() {
+      SampleChunk lastReadChunk = readChunk;
+      int lastReadSlot = readIndex - lastReadChunk.firstIndex;
+      readIndex++;
+      if (lastReadSlot == CHUNK_SIZE - 1) {
+        // The producer links the next chunk before publishing the last sample of this one.
+        readChunk = lastReadChunk.next;
+      }
+      return readIndex < writeIndex ? readChunk.offsets[readIndex - readChunk.firstIndex]
+          : (lastReadChunk.sizes[lastReadSlot] + lastReadChunk.offsets[lastReadSlot]);
+    }
+
+    /**
+     * Discards read samples from the back buffer until it fits within the specified caps and
+     * starts with a keyframe.
      *
+     * @param readPosition The absolute position of the first byte in the rolling buffer that has
+     *     yet to be read.
+     * @param maxBytes The maximum number of bytes of read samples to retain.
+     * @param maxDurationUs The maximum duration of read samples to retain, in microseconds.
      * @return The absolute position of the first byte in the rolling buffer that may still be
-     *     required after advancing the index. Data prior to this position can be dropped.
+     *     required. Data prior to this position can be dropped.
      */
-    public synchronized long moveToNextSample() {
-      queueSize--;
-      int lastReadIndex = relativeReadIndex++;
-      absoluteReadIndex++;
-      if (relativeReadIndex == capacity) {
-        // Wrap around.
-        relativeReadIndex = 0;
+    public long discardBackBuffer(long readPosition, int maxBytes, long maxDurationUs) {
+      if (startIndex == readIndex) {
+        return readPosition;
+      }
+      SampleChunk lastReadChunk = getChunk(startChunk, readIndex - 1);
+      long lastReadTimeUs = lastReadChunk.timesUs[readIndex - 1 - lastReadChunk.firstIndex];
+      while (startIndex < readIndex) {
+        int slot = startIndex - startChunk.firstIndex;
+        if ((startChunk.flags[slot] & C.SAMPLE_FLAG_SYNC) != 0
+            && readPosition - startChunk.offsets[slot] <= maxBytes
+            && lastReadTimeUs - startChunk.timesUs[slot] <= maxDurationUs) {
+          return startChunk.offsets[slot];
+        }
+        startIndex++;
+        if (slot == CHUNK_SIZE - 1) {
+          // Unlink the chunk, so that it can be garbage collected.
+          startChunk = startChunk.next;
+        }
       }
-      return queueSize > 0 ? offsets[relativeReadIndex]
-          : (sizes[lastReadIndex] + offsets[lastReadIndex]);
+      return readPosition;
     }
 
     /**
-     * Attempts to locate the keyframe before the specified time, if it's present in the buffer.
+     * Attempts to locate the keyframe before the specified time, if it's present in the buffer,
+     * either ahead of the read index or in the back buffer.
      *
      * @param timeUs The seek time.
      * @return The offset of the keyframe's data if the keyframe was present. -1 otherwise.
      */
-    public synchronized long skipToKeyframeBefore(long timeUs) {
-      if (queueSize == 0 || timeUs < timesUs[relativeReadIndex]) {
+    public long skipToKeyframeBefore(long timeUs) {
+      int writeIndex = this.writeIndex;
+      if (startIndex == writeIndex
+          || timeUs < startChunk.timesUs[startIndex - startChunk.firstIndex]) {
         return -1;
       }
 
-      int lastWriteIndex = (relativeWriteIndex == 0 ? capacity : relativeWriteIndex) - 1;
-      long lastTimeUs = timesUs[lastWriteIndex];
+      SampleChunk lastWriteChunk = getChunk(startChunk, writeIndex - 1);
+      long lastTimeUs = lastWriteChunk.timesUs[writeIndex - 1 - lastWriteChunk.firstIndex];
       if (timeUs > lastTimeUs) {
         return -1;
       }
 
-      // TODO: This can be optimized further using binary search, although the fact that the array
-      // is cyclic means we'd need to implement the binary search ourselves.
-      int sampleCount = 0;
-      int sampleCountToKeyframe = -1;
-      int searchIndex = relativeReadIndex;
-      while (searchIndex != relativeWriteIndex) {
-        if (timesUs[searchIndex] > timeUs) {
+      int keyframeIndex = -1;
+      SampleChunk keyframeChunk = null;
+      SampleChunk chunk = startChunk;
+      for (int i = startIndex; i < writeIndex; i++) {
+        chunk = getChunk(chunk, i);
+        int slot = i - chunk.firstIndex;
+        if (chunk.timesUs[slot] > timeUs) {
           // We've gone too far.
           break;
-        } else if ((flags[searchIndex] & C.SAMPLE_FLAG_SYNC) != 0) {
+        } else if ((chunk.flags[slot] & C.SAMPLE_FLAG_SYNC) != 0) {
           // We've found a keyframe, and we're still before the seek position.
-          sampleCountToKeyframe = sampleCount;
+          keyframeIndex = i;
+          keyframeChunk = chunk;
         }
-        searchIndex = (searchIndex + 1) % capacity;
-        sampleCount++;
       }
 
-      if (sampleCountToKeyframe == -1) {
+      if (keyframeIndex == -1) {
         return -1;
       }
 
-      queueSize -= sampleCountToKeyframe;
-      relativeReadIndex = (relativeReadIndex + sampleCountToKeyframe) % capacity;
-      absoluteReadIndex += sampleCountToKeyframe;
-      return offsets[relativeReadIndex];
+      // Samples before the keyframe, including any that were skipped, form the back buffer.
+      readIndex = keyframeIndex;
+      readChunk = keyframeChunk;
+      return keyframeChunk.offsets[keyframeIndex - keyframeChunk.firstIndex];
     }
 
     // Called by the loading thread.
 
-    public synchronized void commitSample(long timeUs, int sampleFlags, long offset, int size,
+    public void commitSample(long timeUs, int sampleFlags, long offset, int size,
         byte[] encryptionKey) {
-      timesUs[relativeWriteIndex] = timeUs;
-      offsets[relativeWriteIndex] = offset;
-      sizes[relativeWriteIndex] = size;
-      flags[relativeWriteIndex] = sampleFlags;
-      encryptionKeys[relativeWriteIndex] = encryptionKey;
-      // Increment the write index.
-      queueSize++;
-      if (queueSize == capacity) {
-        // Increase the capacity.
-        int newCapacity = capacity + SAMPLE_CAPACITY_INCREMENT;
-        long[] newOffsets = new long[newCapacity];
-        long[] newTimesUs = new long[newCapacity];
-        int[] newFlags = new int[newCapacity];
-        int[] newSizes = new int[newCapacity];
-        byte[][] newEncryptionKeys = new byte[newCapacity][];
-        int beforeWrap = capacity - relativeReadIndex;
-        System.arraycopy(offsets, relativeReadIndex, newOffsets, 0, beforeWrap);
-        System.arraycopy(timesUs, relativeReadIndex, newTimesUs, 0, beforeWrap);
-        System.arraycopy(flags, relativeReadIndex, newFlags, 0, beforeWrap);
-        System.arraycopy(sizes, relativeReadIndex, newSizes, 0, beforeWrap);
-        System.arraycopy(encryptionKeys, relativeReadIndex, newEncryptionKeys, 0, beforeWrap);
-        int afterWrap = relativeReadIndex;
-        System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
-        System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
-        System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
-        System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
-        System.arraycopy(encryptionKeys, 0, newEncryptionKeys, beforeWrap, afterWrap);
-        offsets = newOffsets;
-        timesUs = newTimesUs;
-        flags = newFlags;
-        sizes = newSizes;
-        encryptionKeys = newEncryptionKeys;
-        relativeReadIndex = 0;
-        relativeWriteIndex = capacity;
-        queueSize = capacity;
-        capacity = newCapacity;
-      } else {
-        relativeWriteIndex++;
-        if (relativeWriteIndex == capacity) {
-          // Wrap around.
-          relativeWriteIndex = 0;
-        }
+      SampleChunk chunk = writeChunk;
+      int index = writeIndex;
+      int slot = index - chunk.firstIndex;
+      chunk.timesUs[slot] = timeUs;
+      chunk.offsets[slot] = offset;
+      chunk.sizes[slot] = size;
+      chunk.flags[slot] = sampleFlags;
+      chunk.encryptionKeys[slot] = encryptionKey;
+      committedPosition = offset + size;
+      if (slot == CHUNK_SIZE - 1) {
+        // Link the next chunk before the sample is published, so that the consumer can follow the
+        // read index into it.
+        chunk.next = new SampleChunk(index + 1);
+        writeChunk = chunk.next;
       }
+      // Publish the sample.
+      writeIndex = index + 1;
+    }
+
+    /**
+     * Returns the chunk that holds the sample at an absolute index, searching forward from a
+     * chunk that holds an earlier sample.
+     *
+     * @param chunk A chunk at or before the one holding the sample.
+     * @param absoluteIndex The absolute index of the sample.
+     * @return The chunk holding the sample.
+     */
+    private static SampleChunk getChunk(SampleChunk chunk, int absoluteIndex) {
+      while (absoluteIndex >= chunk.firstIndex + CHUNK_SIZE) {
+        chunk = chunk.next;
+      }
+      return chunk;
+    }
+
+  }
+
+  /**
+   * Holds the information of {@link InfoQueue#CHUNK_SIZE} consecutive samples.
+   */
+  private static final class SampleChunk {
+
+    public final int firstIndex;
+    public final long[] offsets;
+    public final int[] sizes;
+    public final int[] flags;
+    public final long[] timesUs;
+    public final byte[][] encryptionKeys;
+
+    public SampleChunk next;
+
+    public SampleChunk(int firstIndex) {
+      this.firstIndex = firstIndex;
+      offsets = new long[InfoQueue.CHUNK_SIZE];
+      sizes = new int[InfoQueue.CHUNK_SIZE];
+      flags = new int[InfoQueue.CHUNK_SIZE];
+      timesUs = new long[InfoQueue.CHUNK_SIZE];
+      encryptionKeys = new byte[InfoQueue.CHUNK_SIZE][];
     }
 
   }
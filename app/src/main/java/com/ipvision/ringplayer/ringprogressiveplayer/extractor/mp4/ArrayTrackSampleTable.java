@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.extractor.mp4;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
+
+/**
+ * A {@link TrackSampleTable} that holds the offset, size, timestamp and flags of each sample in
+ * arrays, and an index of the synchronization samples and their timestamps with which seeks are
+ * resolved by a single binary search.
+ */
+/* package */ final class ArrayTrackSampleTable extends TrackSampleTable {
+
+  /**
+   * Sample offsets in bytes.
+   */
+  public final long[] offsets;
+  /**
+   * Sample sizes in bytes.
+   */
+  public final int[] sizes;
+  /**
+   * Sample timestamps in microseconds.
+   */
+  public final long[] timestampsUs;
+  /**
+   * Sample flags.
+   */
+  public final int[] flags;
+
+  // Null if all samples are synchronization samples, in which case the timestamps of the
+  // synchronization samples are those of all samples.
+  private final int[] syncSampleIndices;
+  private final long[] syncSampleTimestampsUs;
+
+  ArrayTrackSampleTable(long[] offsets, int[] sizes, int maximumSize, long[] timestampsUs,
+      int[] flags) {
+    super(offsets.length, maximumSize);
+    Assertions.checkArgument(sizes.length == timestampsUs.length);
+    Assertions.checkArgument(offsets.length == timestampsUs.length);
+    Assertions.checkArgument(flags.length == timestampsUs.length);
+
+    this.offsets = offsets;
+    this.sizes = sizes;
+    this.timestampsUs = timestampsUs;
+    this.flags = flags;
+
+    int syncSampleCount = 0;
+    for (int i = 0; i < flags.length; i++) {
+      if ((flags[i] & C.SAMPLE_FLAG_SYNC) != 0) {
+        syncSampleCount++;
+      }
+    }
+    if (syncSampleCount == flags.length) {
+      syncSampleIndices = null;
+      syncSampleTimestampsUs = timestampsUs;
+    } else {
+      syncSampleIndices = new int[syncSampleCount];
+      syncSampleTimestampsUs = new long[syncSampleCount];
+      int syncSample = 0;
+      for (int i = 0; i < flags.length; i++) {
+        if ((flags[i] & C.SAMPLE_FLAG_SYNC) != 0) {
+          syncSampleIndices[syncSample] = i;
+          syncSampleTimestampsUs[syncSample] = timestampsUs[i];
+          syncSample++;
+        }
+      }
+    }
+  }
+
+  @Override
+  public long getOffset(int index) {
+    return offsets[index];
+  }
+
+  @Override
+  public int getSize(int index) {
+    return sizes[index];
+  }
+
+  @Override
+  public long getTimestampUs(int index) {
+    return timestampsUs[index];
+  }
+
+  @Override
+  public int getFlags(int index) {
+    return flags[index];
+  }
+
+  @Override
+  public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+    // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
+    // Frames are not reordered past synchronization samples so this works in practice.
+    int syncSample = Util.binarySearchFloor(syncSampleTimestampsUs, timeUs, true, false);
+    return syncSample == -1 ? NO_SAMPLE : getSyncSampleIndex(syncSample);
+  }
+
+  @Override
+  public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+    int syncSample = Util.binarySearchCeil(syncSampleTimestampsUs, timeUs, true, false);
+    return syncSample == syncSampleTimestampsUs.length ? NO_SAMPLE
+        : getSyncSampleIndex(syncSample);
+  }
+
+  @Override
+  public long getMemoryBytes() {
+    // An offset, a size, a timestamp and flags per sample, and an index and a timestamp per
+    // synchronization sample.
+    return (long) sampleCount * (8 + 4 + 8 + 4)
+        + (syncSampleIndices == null ? 0 : (4L + 8) * syncSampleIndices.length);
+  }
+
+  private int getSyncSampleIndex(int syncSample) {
+    return syncSampleIndices == null ? syncSample : syncSampleIndices[syncSample];
+  }
+
+}
@@ -29,6 +29,7 @@ import com.ipvision.ringplayer.ringprogressiveplayer.util.ParsableByteArray;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -109,13 +110,10 @@ import java.util.List;
     int fixedSampleSize = stsz.readUnsignedIntToInt();
     int sampleCount = stsz.readUnsignedIntToInt();
 
-    long[] offsets = new long[sampleCount];
-    int[] sizes = new int[sampleCount];
     int maximumSize = 0;
-    long[] timestamps = new long[sampleCount];
-    int[] flags = new int[sampleCount];
     if (sampleCount == 0) {
-      return new TrackSampleTable(offsets, sizes, maximumSize, timestamps, flags);
+      return new ArrayTrackSampleTable(new long[0], new int[0], maximumSize, new long[0],
+          new int[0]);
     }
 
     // Prepare to read chunk offsets.
@@ -174,19 +172,62 @@ import java.util.List;
       offsetBytes = chunkOffsets.readUnsignedLongToLong();
     }
 
+    // The sample table is stored compactly (see CompactTrackSampleTable): chunks of contiguous
+    // samples, runs of samples with the same timestamp delta and offset, and a bitmap of
+    // synchronization samples. All samples are synchronization samples if the stss is not present.
+    int[] sampleOffsetsInChunk = new int[sampleCount];
+    int[] chunkFirstSampleIndices = new int[chunkCount];
+    long[] chunkStartOffsets = new long[chunkCount];
+    int[] chunkSizes = new int[chunkCount];
+    int chunkStartCount = 0;
+    boolean chunkStarted = true;
+    int[] timeRunFirstSampleIndices = new int[remainingTimestampDeltaChanges + 1];
+    long[] timeRunFirstTimes = new long[remainingTimestampDeltaChanges + 1];
+    int[] timeRunDeltas = new int[remainingTimestampDeltaChanges + 1];
+    int timeRunCount = 0;
+    int offsetRunCapacity = ctts != null ? remainingTimestampOffsetChanges + 1 : 0;
+    int[] offsetRunFirstSampleIndices = new int[offsetRunCapacity];
+    int[] offsetRunValues = new int[offsetRunCapacity];
+    int offsetRunCount = 0;
+    long[] syncSamples = stss == null ? null : new long[(sampleCount + 63) / 64];
+    // An index of the synchronization samples and their timestamps, for seeking.
+    int[] syncSampleIndices = stss == null ? null : new int[remainingSynchronizationSamples];
+    long[] syncSampleTimes = stss == null ? null : new long[remainingSynchronizationSamples];
+    int syncSampleCount = 0;
+
     long timestampTimeUnits = 0;
     for (int i = 0; i < sampleCount; i++) {
-      offsets[i] = offsetBytes;
-      sizes[i] = fixedSampleSize == 0 ? stsz.readUnsignedIntToInt() : fixedSampleSize;
-      if (sizes[i] > maximumSize) {
-        maximumSize = sizes[i];
+      if (chunkStarted) {
+        chunkFirstSampleIndices[chunkStartCount] = i;
+        chunkStartOffsets[chunkStartCount] = offsetBytes;
+        chunkStartCount++;
+        chunkStarted = false;
+      }
+      int chunk = chunkStartCount - 1;
+      int size = fixedSampleSize == 0 ? stsz.readUnsignedIntToInt() : fixedSampleSize;
+      sampleOffsetsInChunk[i] = (int) (offsetBytes - chunkStartOffsets[chunk]);
+      chunkSizes[chunk] = sampleOffsetsInChunk[i] + size;
+      if (size > maximumSize) {
+        maximumSize = size;
+      }
+      if (timeRunCount == 0 || timeRunDeltas[timeRunCount - 1] != timestampDeltaInTimeUnits) {
+        timeRunFirstSampleIndices[timeRunCount] = i;
+        timeRunFirstTimes[timeRunCount] = timestampTimeUnits;
+        timeRunDeltas[timeRunCount] = timestampDeltaInTimeUnits;
+        timeRunCount++;
+      }
+      if (ctts != null
+          && (offsetRunCount == 0 || offsetRunValues[offsetRunCount - 1] != timestampOffset)) {
+        offsetRunFirstSampleIndices[offsetRunCount] = i;
+        offsetRunValues[offsetRunCount] = timestampOffset;
+        offsetRunCount++;
       }
-      timestamps[i] = timestampTimeUnits + timestampOffset;
 
-      // All samples are synchronization samples if the stss is not present.
-      flags[i] = stss == null ? C.SAMPLE_FLAG_SYNC : 0;
       if (i == nextSynchronizationSampleIndex) {
-        flags[i] = C.SAMPLE_FLAG_SYNC;
+        syncSamples[i >> 6] |= 1L << i;
+        syncSampleIndices[syncSampleCount] = i;
+        syncSampleTimes[syncSampleCount] = timestampTimeUnits + timestampOffset;
+        syncSampleCount++;
         remainingSynchronizationSamples--;
         if (remainingSynchronizationSamples > 0) {
           nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
@@ -238,10 +279,11 @@ import java.util.List;
         // Expect samplesPerChunk samples in the following chunk, if it's before the end.
         if (chunkIndex < chunkCount) {
           remainingSamplesInChunk = samplesPerChunk;
+          chunkStarted = true;
         }
       } else {
         // The next sample follows the current one.
-        offsetBytes += sizes[i];
+        offsetBytes += size;
       }
     }
 
@@ -252,9 +294,17 @@ import java.util.List;
     Assertions.checkArgument(remainingTimestampDeltaChanges == 0);
     Assertions.checkArgument(remainingTimestampOffsetChanges == 0);
 
+    CompactTrackSampleTable sampleTable = new CompactTrackSampleTable(sampleCount, maximumSize,
+        Arrays.copyOf(chunkFirstSampleIndices, chunkStartCount),
+        Arrays.copyOf(chunkStartOffsets, chunkStartCount),
+        Arrays.copyOf(chunkSizes, chunkStartCount), sampleOffsetsInChunk,
+        Arrays.copyOf(timeRunFirstSampleIndices, timeRunCount),
+        Arrays.copyOf(timeRunFirstTimes, timeRunCount), Arrays.copyOf(timeRunDeltas, timeRunCount),
+        Arrays.copyOf(offsetRunFirstSampleIndices, offsetRunCount),
+        Arrays.copyOf(offsetRunValues, offsetRunCount), syncSamples, syncSampleIndices,
+        syncSampleTimes, track.timescale, 0);
     if (track.editListDurations == null) {
-      Util.scaleLargeTimestampsInPlace(timestamps, C.MICROS_PER_SECOND, track.timescale);
-      return new TrackSampleTable(offsets, sizes, maximumSize, timestamps, flags);
+      return sampleTable;
     }
 
     // See the BMFF spec (ISO 14496-12) subsection 8.6.6. Edit lists that truncate audio and
@@ -262,6 +312,11 @@ import java.util.List;
     // implementation handles simple discarding/delaying of samples. The extractor may place
     // further restrictions on what edited streams are playable.
 
+    long[] timestamps = new long[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      timestamps[i] = sampleTable.getTimestamp(i);
+    }
+
     // Count the number of samples after applying edits.
     int editedSampleCount = 0;
     int nextSampleIndex = 0;
@@ -279,6 +334,20 @@ import java.util.List;
       }
     }
     copyMetadata |= editedSampleCount != sampleCount;
+    if (!copyMetadata && track.editListDurations.length == 1) {
+      // A single edit that only shifts the samples is applied to the compact table.
+      return sampleTable.copyWithMediaTime(track.editListMediaTimes[0]);
+    }
+
+    // Other edits are applied to a table that holds each sample's metadata in arrays.
+    long[] offsets = new long[sampleCount];
+    int[] sizes = new int[sampleCount];
+    int[] flags = new int[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      offsets[i] = sampleTable.getOffset(i);
+      sizes[i] = sampleTable.getSize(i);
+      flags[i] = sampleTable.getFlags(i);
+    }
 
     // Calculate edited sample timestamps and update the corresponding metadata arrays.
     long[] editedOffsets = copyMetadata ? new long[editedSampleCount] : offsets;
@@ -315,8 +384,8 @@ import java.util.List;
       }
       pts += duration;
     }
-    return new TrackSampleTable(editedOffsets, editedSizes, editedMaximumSize, editedTimestamps,
-        editedFlags);
+    return new ArrayTrackSampleTable(editedOffsets, editedSizes, editedMaximumSize,
+        editedTimestamps, editedFlags);
   }
 
   /**
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.extractor.mp4;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
+
+import java.util.Arrays;
+
+/**
+ * A {@link TrackSampleTable} that keeps the sample table close to its encoding in the stbl atom,
+ * for tracks with very many samples.
+ * <p>
+ * Offsets are held per chunk, along with the offset of each sample within its chunk, from which
+ * sample sizes are also derived. Timestamps are held as runs of samples with the same decoding time
+ * delta (from stts) and the same composition offset (from ctts), and synchronization samples as a
+ * bitmap. An index of the synchronization samples and their timestamps is also held, so that the
+ * synchronization sample nearest to a time is found with a single binary search. Per-sample values
+ * are decoded on demand. The table remembers the chunk and runs of the
+ * most recently decoded sample, so that reading samples in order takes constant time per sample,
+ * and other samples are found by binary search. The remembered indices are only hints that are
+ * checked before they're used, so the table can be read by several threads.
+ */
+/* package */ final class CompactTrackSampleTable extends TrackSampleTable {
+
+  /**
+   * The indices of the first samples of the chunks.
+   */
+  public final int[] chunkFirstSampleIndices;
+  /**
+   * The offsets of the chunks in bytes.
+   */
+  public final long[] chunkOffsets;
+  /**
+   * The sizes of the chunks in bytes.
+   */
+  public final int[] chunkSizes;
+  /**
+   * The offsets of the samples from the start of their chunks, in bytes.
+   */
+  public final int[] sampleOffsetsInChunk;
+  /**
+   * The indices of the first samples of the decoding time runs.
+   */
+  public final int[] timeRunFirstSampleIndices;
+  /**
+   * The decoding times of the first samples of the decoding time runs, in the track's timescale.
+   */
+  public final long[] timeRunFirstTimes;
+  /**
+   * The decoding time deltas of the samples in the decoding time runs, in the track's timescale.
+   */
+  public final int[] timeRunDeltas;
+  /**
+   * The indices of the first samples of the composition offset runs. Empty if the samples have no
+   * composition offsets.
+   */
+  public final int[] offsetRunFirstSampleIndices;
+  /**
+   * The composition offsets of the samples in the composition offset runs, in the track's
+   * timescale.
+   */
+  public final int[] offsetRunValues;
+  /**
+   * A bitmap in which the bit {@code i % 64} of entry {@code i / 64} is set if sample {@code i} is
+   * a synchronization sample, or null if all samples are synchronization samples.
+   */
+  public final long[] syncSamples;
+  /**
+   * The indices of the synchronization samples in increasing order, or null if all samples are
+   * synchronization samples.
+   */
+  public final int[] syncSampleIndices;
+  /**
+   * The timestamps of the synchronization samples in the track's timescale, without the media time
+   * subtracted, or null if all samples are synchronization samples.
+   */
+  public final long[] syncSampleTimes;
+  /**
+   * The track's timescale.
+   */
+  public final long timescale;
+  /**
+   * The media time that is subtracted from the timestamps of the samples, in the track's
+   * timescale.
+   */
+  public final long mediaTime;
+
+  private int chunkHint;
+  private int timeRunHint;
+  private int offsetRunHint;
+
+  CompactTrackSampleTable(int sampleCount, int maximumSize, int[] chunkFirstSampleIndices,
+      long[] chunkOffsets, int[] chunkSizes, int[] sampleOffsetsInChunk,
+      int[] timeRunFirstSampleIndices, long[] timeRunFirstTimes, int[] timeRunDeltas,
+      int[] offsetRunFirstSampleIndices, int[] offsetRunValues, long[] syncSamples,
+      int[] syncSampleIndices, long[] syncSampleTimes, long timescale, long mediaTime) {
+    super(sampleCount, maximumSize);
+    this.chunkFirstSampleIndices = chunkFirstSampleIndices;
+    this.chunkOffsets = chunkOffsets;
+    this.chunkSizes = chunkSizes;
+    this.sampleOffsetsInChunk = sampleOffsetsInChunk;
+    this.timeRunFirstSampleIndices = timeRunFirstSampleIndices;
+    this.timeRunFirstTimes = timeRunFirstTimes;
+    this.timeRunDeltas = timeRunDeltas;
+    this.offsetRunFirstSampleIndices = offsetRunFirstSampleIndices;
+    this.offsetRunValues = offsetRunValues;
+    this.syncSamples = syncSamples;
+    this.syncSampleIndices = syncSampleIndices;
+    this.syncSampleTimes = syncSampleTimes;
+    this.timescale = timescale;
+    this.mediaTime = mediaTime;
+  }
+
+  /**
+   * Returns a copy of this table whose timestamps are offset by a different media time.
+   *
+   * @param mediaTime The media time that is subtracted from the timestamps of the samples, in the
+   *     track's timescale.
+   * @return The copy, which shares the data of this table.
+   */
+  public CompactTrackSampleTable copyWithMediaTime(long mediaTime) {
+    return new CompactTrackSampleTable(sampleCount, maximumSize, chunkFirstSampleIndices,
+        chunkOffsets, chunkSizes, sampleOffsetsInChunk, timeRunFirstSampleIndices,
+        timeRunFirstTimes, timeRunDeltas, offsetRunFirstSampleIndices, offsetRunValues,
+        syncSamples, syncSampleIndices, syncSampleTimes, timescale, mediaTime);
+  }
+
+  @Override
+  public long getOffset(int index) {
+    int chunk = getChunk(index);
+    return chunkOffsets[chunk] + sampleOffsetsInChunk[index];
+  }
+
+  @Override
+  public int getSize(int index) {
+    int chunk = getChunk(index);
+    int nextChunkFirstSampleIndex = chunk + 1 < chunkFirstSampleIndices.length
+        ? chunkFirstSampleIndices[chunk + 1] : sampleCount;
+    int endOffsetInChunk = index + 1 < nextChunkFirstSampleIndex
+        ? sampleOffsetsInChunk[index + 1] : chunkSizes[chunk];
+    return endOffsetInChunk - sampleOffsetsInChunk[index];
+  }
+
+  @Override
+  public long getTimestampUs(int index) {
+    return Util.scaleLargeTimestamp(getTimestamp(index) - mediaTime, C.MICROS_PER_SECOND,
+        timescale);
+  }
+
+  /**
+   * Returns the timestamp of a sample in the track's timescale, without the media time subtracted.
+   *
+   * @param index The index of the sample.
+   * @return The timestamp of the sample.
+   */
+  public long getTimestamp(int index) {
+    int timeRun = findRun(timeRunFirstSampleIndices, index, timeRunHint);
+    timeRunHint = timeRun;
+    long timestamp = timeRunFirstTimes[timeRun]
+        + (long) (index - timeRunFirstSampleIndices[timeRun]) * timeRunDeltas[timeRun];
+    if (offsetRunFirstSampleIndices.length > 0) {
+      int offsetRun = findRun(offsetRunFirstSampleIndices, index, offsetRunHint);
+      offsetRunHint = offsetRun;
+      timestamp += offsetRunValues[offsetRun];
+    }
+    return timestamp;
+  }
+
+  @Override
+  public int getFlags(int index) {
+    return syncSamples == null || (syncSamples[index >> 6] & (1L << index)) != 0
+        ? C.SAMPLE_FLAG_SYNC : 0;
+  }
+
+  @Override
+  public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+    // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
+    // Frames are not reordered past synchronization samples so this works in practice.
+    int low = 0;
+    int high = getSyncSampleCount() - 1;
+    int syncSample = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (getSyncSampleTimestampUs(mid) <= timeUs) {
+        syncSample = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return syncSample == -1 ? NO_SAMPLE : getSyncSampleIndex(syncSample);
+  }
+
+  @Override
+  public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+    int syncSampleCount = getSyncSampleCount();
+    int low = 0;
+    int high = syncSampleCount - 1;
+    int syncSample = syncSampleCount;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (getSyncSampleTimestampUs(mid) >= timeUs) {
+        syncSample = mid;
+        high = mid - 1;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return syncSample == syncSampleCount ? NO_SAMPLE : getSyncSampleIndex(syncSample);
+  }
+
+  @Override
+  public long getMemoryBytes() {
+    return 4L * sampleOffsetsInChunk.length
+        + (4 + 8 + 4) * chunkFirstSampleIndices.length
+        + (4 + 8 + 4) * timeRunFirstSampleIndices.length
+        + (4 + 4) * offsetRunFirstSampleIndices.length
+        + (syncSamples == null ? 0 : 8L * syncSamples.length)
+        + (syncSampleIndices == null ? 0 : (4L + 8) * syncSampleIndices.length);
+  }
+
+  private int getSyncSampleCount() {
+    return syncSampleIndices == null ? sampleCount : syncSampleIndices.length;
+  }
+
+  private int getSyncSampleIndex(int syncSample) {
+    return syncSampleIndices == null ? syncSample : syncSampleIndices[syncSample];
+  }
+
+  private long getSyncSampleTimestampUs(int syncSample) {
+    return syncSampleIndices == null ? getTimestampUs(syncSample)
+        : Util.scaleLargeTimestamp(syncSampleTimes[syncSample] - mediaTime, C.MICROS_PER_SECOND,
+            timescale);
+  }
+
+  private int getChunk(int index) {
+    int chunk = findRun(chunkFirstSampleIndices, index, chunkHint);
+    chunkHint = chunk;
+    return chunk;
+  }
+
+  /**
+   * Returns the index of the run that contains a sample, checking the run at a hinted index and
+   * the one after it before resorting to a binary search.
+   *
+   * @param firstSampleIndices The strictly increasing indices of the first samples of the runs,
+   *     the first of which is zero.
+   * @param index The index of the sample.
+   * @param hint The index of a run that is likely to contain the sample, or to precede it.
+   * @return The index of the run.
+   */
+  private static int findRun(int[] firstSampleIndices, int index, int hint) {
+    int runCount = firstSampleIndices.length;
+    if (firstSampleIndices[hint] <= index) {
+      if (hint + 1 == runCount || index < firstSampleIndices[hint + 1]) {
+        return hint;
+      } else if (hint + 2 == runCount || index < firstSampleIndices[hint + 2]) {
+        return hint + 1;
+      }
+    }
+    int run = Arrays.binarySearch(firstSampleIndices, index);
+    return run >= 0 ? run : -(run + 2);
+  }
+
+}
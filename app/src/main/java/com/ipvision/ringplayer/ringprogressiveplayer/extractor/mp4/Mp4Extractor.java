@@ -23,6 +23,7 @@ import com.ipvision.ringplayer.ringprogressiveplayer.extractor.SeekMap;
 import com.ipvision.ringplayer.ringprogressiveplayer.extractor.TrackOutput;
 import com.ipvision.ringplayer.ringprogressiveplayer.extractor.mp4.Atom.ContainerAtom;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.NalUnitUtil;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.ParsableByteArray;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
@@ -34,6 +35,10 @@ import java.util.Stack;
 
 /**
  * Extracts data from an unfragmented MP4 file.
+ * <p>
+ * If the extractor is given a {@link SampleTableCache}, the tracks parsed from the moov atom are
+ * cached, and a later extractor that reads the same stream from its start reads the tracks from the
+ * cache instead, and goes straight to reading samples without loading the moov atom.
  */
 public final class Mp4Extractor implements Extractor, SeekMap {
 
@@ -59,6 +64,9 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private final ParsableByteArray atomHeader;
   private final Stack<ContainerAtom> containerAtoms;
 
+  private final SampleTableCache sampleTableCache;
+  private final String cacheKey;
+
   private int parserState;
   private int atomType;
   private long atomSize;
@@ -75,6 +83,18 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private boolean isQuickTime;
 
   public Mp4Extractor() {
+    this(null, null);
+  }
+
+  /**
+   * @param sampleTableCache A cache of parsed tracks, or null.
+   * @param cacheKey The key that identifies the content of the stream in the cache, for example its
+   *     uri together with a validator such as the last modified time of a file. Cached tracks are
+   *     also validated against the length of the stream. May be null if the cache is null.
+   */
+  public Mp4Extractor(SampleTableCache sampleTableCache, String cacheKey) {
+    this.sampleTableCache = sampleTableCache;
+    this.cacheKey = cacheKey;
     atomHeader = new ParsableByteArray(Atom.LONG_HEADER_SIZE);
     containerAtoms = new Stack<>();
     nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
@@ -148,7 +168,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       }
       tracks[trackIndex].sampleIndex = sampleIndex;
 
-      long offset = sampleTable.offsets[sampleIndex];
+      long offset = sampleTable.getOffset(sampleIndex);
       if (offset < earliestSamplePosition) {
         earliestSamplePosition = offset;
       }
@@ -164,6 +184,10 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   }
 
   private boolean readAtomHeader(ExtractorInput input) throws IOException, InterruptedException {
+    if (atomHeaderBytesRead == 0 && input.getPosition() == 0 && maybeRestoreTracks(input)) {
+      parserState = STATE_READING_SAMPLE;
+      return true;
+    }
     if (atomHeaderBytesRead == 0) {
       // Read the standard length atom header.
       if (!input.readFully(atomHeader.data, 0, Atom.HEADER_SIZE, true)) {
@@ -234,7 +258,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       Atom.ContainerAtom containerAtom = containerAtoms.pop();
       if (containerAtom.type == Atom.TYPE_moov) {
         // We've reached the end of the moov atom. Process it and prepare to read samples.
-        processMoovAtom(containerAtom);
+        processMoovAtom(containerAtom, input.getLength());
         containerAtoms.clear();
         parserState = STATE_READING_SAMPLE;
         return false;
@@ -268,10 +292,34 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     return false;
   }
 
-  /** Updates the stored track metadata to reflect the contents of the specified moov atom. */
-  private void processMoovAtom(ContainerAtom moov) {
-    List<Mp4Track> tracks = new ArrayList<>();
-    long earliestSampleOffset = Long.MAX_VALUE;
+  /**
+   * Restores the tracks of the stream from the {@link SampleTableCache}, if they are cached.
+   *
+   * @param input The input, positioned at the start of the stream.
+   * @return Whether the tracks were restored.
+   */
+  private boolean maybeRestoreTracks(ExtractorInput input) {
+    if (sampleTableCache == null || input.getLength() == C.LENGTH_UNBOUNDED) {
+      return false;
+    }
+    SampleTableCache.Entry entry = sampleTableCache.get(cacheKey, input.getLength());
+    if (entry == null) {
+      return false;
+    }
+    setTracks(entry.trackIds, entry.tracks, entry.sampleTables);
+    return true;
+  }
+
+  /**
+   * Updates the stored track metadata to reflect the contents of the specified moov atom.
+   *
+   * @param moov The moov atom.
+   * @param length The length of the stream, or {@link C#LENGTH_UNBOUNDED} if unknown.
+   */
+  private void processMoovAtom(ContainerAtom moov, long length) {
+    List<Integer> trackIds = new ArrayList<>();
+    List<Track> tracks = new ArrayList<>();
+    List<TrackSampleTable> sampleTables = new ArrayList<>();
     for (int i = 0; i < moov.containerChildren.size(); i++) {
       Atom.ContainerAtom atom = moov.containerChildren.get(i);
       if (atom.type != Atom.TYPE_trak) {
@@ -291,19 +339,44 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         continue;
       }
 
-      Mp4Track mp4Track = new Mp4Track(track, trackSampleTable, extractorOutput.track(i));
+      trackIds.add(i);
+      tracks.add(track);
+      sampleTables.add(trackSampleTable);
+    }
+    int[] trackIdArray = new int[trackIds.size()];
+    for (int i = 0; i < trackIdArray.length; i++) {
+      trackIdArray[i] = trackIds.get(i);
+    }
+    Track[] trackArray = tracks.toArray(new Track[tracks.size()]);
+    TrackSampleTable[] sampleTableArray =
+        sampleTables.toArray(new TrackSampleTable[sampleTables.size()]);
+    setTracks(trackIdArray, trackArray, sampleTableArray);
+    if (sampleTableCache != null && length != C.LENGTH_UNBOUNDED) {
+      sampleTableCache.put(cacheKey,
+          new SampleTableCache.Entry(length, trackIdArray, trackArray, sampleTableArray));
+    }
+  }
+
+  /**
+   * Outputs the formats of the tracks of the stream and the seek map, and prepares to read samples
+   * from the start of the tracks.
+   *
+   * @param trackIds The ids with which to output the tracks.
+   * @param tracks The tracks.
+   * @param sampleTables The sample tables of the tracks.
+   */
+  private void setTracks(int[] trackIds, Track[] tracks, TrackSampleTable[] sampleTables) {
+    Mp4Track[] mp4Tracks = new Mp4Track[tracks.length];
+    for (int i = 0; i < tracks.length; i++) {
+      Mp4Track mp4Track = new Mp4Track(tracks[i], sampleTables[i],
+          extractorOutput.track(trackIds[i]));
       // Each sample has up to three bytes of overhead for the start code that replaces its length.
       // Allow ten source samples per output sample, like the platform extractor.
-      int maxInputSize = trackSampleTable.maximumSize + 3 * 10;
-      mp4Track.trackOutput.format(track.mediaFormat.copyWithMaxInputSize(maxInputSize));
-      tracks.add(mp4Track);
-
-      long firstSampleOffset = trackSampleTable.offsets[0];
-      if (firstSampleOffset < earliestSampleOffset) {
-        earliestSampleOffset = firstSampleOffset;
-      }
+      int maxInputSize = sampleTables[i].maximumSize + 3 * 10;
+      mp4Track.trackOutput.format(tracks[i].mediaFormat.copyWithMaxInputSize(maxInputSize));
+      mp4Tracks[i] = mp4Track;
     }
-    this.tracks = tracks.toArray(new Mp4Track[0]);
+    this.tracks = mp4Tracks;
     extractorOutput.endTracks();
     extractorOutput.seekMap(this);
   }
@@ -333,14 +406,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = tracks[trackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
+    long position = track.sampleTable.getOffset(sampleIndex);
     long skipAmount = position - input.getPosition() + sampleBytesWritten;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
       positionHolder.position = position;
       return RESULT_SEEK;
     }
     input.skipFully((int) skipAmount);
-    sampleSize = track.sampleTable.sizes[sampleIndex];
+    sampleSize = track.sampleTable.getSize(sampleIndex);
     if (track.track.nalUnitLengthFieldLength != -1) {
       // Zero the top three bytes of the array that we'll use to parse nal unit lengths, in case
       // they're only 1 or 2 bytes long.
@@ -378,8 +451,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         sampleCurrentNalBytesRemaining -= writtenBytes;
       }
     }
-    trackOutput.sampleMetadata(track.sampleTable.timestampsUs[sampleIndex],
-        track.sampleTable.flags[sampleIndex], sampleSize, 0, null);
+    trackOutput.sampleMetadata(track.sampleTable.getTimestampUs(sampleIndex),
+        track.sampleTable.getFlags(sampleIndex), sampleSize, 0, null);
     track.sampleIndex++;
     sampleBytesWritten = 0;
     sampleCurrentNalBytesRemaining = 0;
@@ -400,7 +473,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         continue;
       }
 
-      long trackSampleOffset = track.sampleTable.offsets[sampleIndex];
+      long trackSampleOffset = track.sampleTable.getOffset(sampleIndex);
       if (trackSampleOffset < earliestSampleOffset) {
         earliestSampleOffset = trackSampleOffset;
         earliestSampleTrackIndex = trackIndex;
@@ -0,0 +1,675 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.extractor.mp4;
+
+import android.util.Log;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.MediaFormat;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.MimeTypes;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A cache of the tracks and sample tables parsed from the moov atoms of unfragmented MP4 streams,
+ * which lets an {@link Mp4Extractor} that reopens a stream skip loading and parsing its moov atom
+ * and start reading samples straight away.
+ * <p>
+ * Entries are keyed by a string that identifies the content of a stream, and are only returned
+ * for a stream of the same length as the one they were parsed from. The most recently used entries
+ * are held in memory, within a budget of sample table bytes. Unless the cache is memory-only, all
+ * entries are also written to a compact binary file in a dedicated directory on a background
+ * thread, and the least recently used files are deleted when the directory exceeds its size budget.
+ * <p>
+ * Since entries are only validated against the length of the stream, a cache that persists them
+ * should only be used for streams whose key changes whenever their content does.
+ */
+public final class SampleTableCache {
+
+  /**
+   * The default number of bytes of sample tables held in memory.
+   */
+  public static final long DEFAULT_MAX_MEMORY_BYTES = 8 * 1024 * 1024;
+  /**
+   * The default size of the cache directory in bytes.
+   */
+  public static final long DEFAULT_MAX_DISK_BYTES = 32 * 1024 * 1024;
+
+  private static final String TAG = "SampleTableCache";
+
+  private static final String FILE_SUFFIX = ".stbl";
+  private static final int FORMAT_VERSION = 3;
+
+  private final File cacheDir;
+  private final long maxMemoryBytes;
+  private final long maxDiskBytes;
+  private final ExecutorService writeExecutor;
+  // Guarded by this. In access order.
+  private final LinkedHashMap<String, Entry> memoryEntries;
+
+  private long memoryBytes;
+
+  /**
+   * @param cacheDir A dedicated cache directory, or null for a memory-only cache.
+   */
+  public SampleTableCache(File cacheDir) {
+    this(cacheDir, DEFAULT_MAX_MEMORY_BYTES, DEFAULT_MAX_DISK_BYTES);
+  }
+
+  /**
+   * @param cacheDir A dedicated cache directory, or null for a memory-only cache. Files that are
+   *     not cache files are ignored.
+   * @param maxMemoryBytes The number of bytes of sample tables to hold in memory.
+   * @param maxDiskBytes The size of the cache directory in bytes.
+   */
+  public SampleTableCache(File cacheDir, long maxMemoryBytes, long maxDiskBytes) {
+    this.cacheDir = cacheDir;
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.maxDiskBytes = maxDiskBytes;
+    writeExecutor = cacheDir == null ? null
+        : Util.newSingleThreadExecutor("SampleTableCache:Write");
+    memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the cached tracks of a stream, reading them from disk if they are not held in memory.
+   *
+   * @param key The key that identifies the content of the stream.
+   * @param length The length of the stream in bytes.
+   * @return The cached tracks, or null if none are cached for the stream.
+   */
+  /* package */ Entry get(String key, long length) {
+    synchronized (this) {
+      Entry entry = memoryEntries.get(key);
+      if (entry != null) {
+        if (entry.length == length) {
+          return entry;
+        }
+        removeMemoryEntry(key);
+      }
+    }
+    if (cacheDir == null) {
+      return null;
+    }
+    File file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+    Entry entry = readEntry(file, key);
+    if (entry == null) {
+      // The file is unreadable, or belongs to a key with the same hash.
+      return null;
+    }
+    if (entry.length != length) {
+      // The file is for older content, and would otherwise be read again on every lookup.
+      file.delete();
+      return null;
+    }
+    file.setLastModified(System.currentTimeMillis());
+    putMemoryEntry(key, entry);
+    return entry;
+  }
+
+  /**
+   * Caches the tracks parsed from the moov atom of a stream.
+   *
+   * @param key The key that identifies the content of the stream.
+   * @param entry The tracks.
+   */
+  /* package */ void put(final String key, final Entry entry) {
+    putMemoryEntry(key, entry);
+    if (writeExecutor == null) {
+      return;
+    }
+    writeExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        writeEntry(key, entry);
+        evictFiles();
+      }
+    });
+  }
+
+  private synchronized void putMemoryEntry(String key, Entry entry) {
+    removeMemoryEntry(key);
+    memoryEntries.put(key, entry);
+    memoryBytes += entry.memoryBytes;
+    Iterator<java.util.Map.Entry<String, Entry>> iterator = memoryEntries.entrySet().iterator();
+    while (memoryBytes > maxMemoryBytes && memoryEntries.size() > 1) {
+      Entry evictedEntry = iterator.next().getValue();
+      iterator.remove();
+      memoryBytes -= evictedEntry.memoryBytes;
+    }
+  }
+
+  private void removeMemoryEntry(String key) {
+    Entry entry = memoryEntries.remove(key);
+    if (entry != null) {
+      memoryBytes -= entry.memoryBytes;
+    }
+  }
+
+  private File getFile(String key) {
+    return new File(cacheDir, Integer.toHexString(key.hashCode()) + FILE_SUFFIX);
+  }
+
+  private static Entry readEntry(File file, String key) {
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (input.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unsupported sample table cache version");
+      }
+      if (!key.equals(input.readUTF())) {
+        return null;
+      }
+      long length = input.readLong();
+      int trackCount = input.readInt();
+      int[] trackIds = new int[trackCount];
+      Track[] tracks = new Track[trackCount];
+      TrackSampleTable[] sampleTables = new TrackSampleTable[trackCount];
+      for (int i = 0; i < trackCount; i++) {
+        trackIds[i] = input.readInt();
+        tracks[i] = readTrack(input);
+        sampleTables[i] = readSampleTable(input);
+      }
+      return new Entry(length, trackIds, tracks, sampleTables);
+    } catch (IOException e) {
+      Log.w(TAG, "Discarding unreadable sample table cache file", e);
+      file.delete();
+      return null;
+    } finally {
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException e) {
+          // Ignore.
+        }
+      }
+    }
+  }
+
+  private void writeEntry(String key, Entry entry) {
+    if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+      Log.w(TAG, "Failed to create " + cacheDir);
+      return;
+    }
+    File file = getFile(key);
+    File tempFile = new File(cacheDir, file.getName() + ".tmp");
+    DataOutputStream output = null;
+    try {
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      output.writeInt(FORMAT_VERSION);
+      output.writeUTF(key);
+      output.writeLong(entry.length);
+      output.writeInt(entry.tracks.length);
+      for (int i = 0; i < entry.tracks.length; i++) {
+        output.writeInt(entry.trackIds[i]);
+        writeTrack(output, entry.tracks[i]);
+        writeSampleTable(output, entry.sampleTables[i]);
+      }
+      output.close();
+      output = null;
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + tempFile + " to " + file);
+      }
+    } catch (IOException e) {
+      // The file is only an optimization. Losing it means that the moov atom is parsed again.
+      Log.w(TAG, "Failed to write sample table cache file", e);
+      tempFile.delete();
+    } finally {
+      if (output != null) {
+        try {
+          output.close();
+        } catch (IOException e) {
+          // Ignore.
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the least recently used cache files until the directory is within its size budget.
+   */
+  private void evictFiles() {
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    List<File> cacheFiles = new ArrayList<>();
+    long totalBytes = 0;
+    for (File file : files) {
+      if (file.getName().endsWith(FILE_SUFFIX)) {
+        cacheFiles.add(file);
+        totalBytes += file.length();
+      }
+    }
+    if (totalBytes <= maxDiskBytes) {
+      return;
+    }
+    File[] sortedFiles = cacheFiles.toArray(new File[cacheFiles.size()]);
+    Arrays.sort(sortedFiles, new Comparator<File>() {
+      @Override
+      public int compare(File file, File otherFile) {
+        long lastModified = file.lastModified();
+        long otherLastModified = otherFile.lastModified();
+        return lastModified < otherLastModified ? -1 : (lastModified == otherLastModified ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < sortedFiles.length - 1 && totalBytes > maxDiskBytes; i++) {
+      long fileBytes = sortedFiles[i].length();
+      if (sortedFiles[i].delete()) {
+        totalBytes -= fileBytes;
+      }
+    }
+  }
+
+  // Serialization.
+
+  private static void writeTrack(DataOutputStream output, Track track) throws IOException {
+    output.writeInt(track.id);
+    output.writeInt(track.type);
+    output.writeLong(track.timescale);
+    output.writeLong(track.movieTimescale);
+    output.writeLong(track.durationUs);
+    writeMediaFormat(output, track.mediaFormat);
+    TrackEncryptionBox[] encryptionBoxes = track.sampleDescriptionEncryptionBoxes;
+    output.writeInt(encryptionBoxes == null ? -1 : encryptionBoxes.length);
+    for (int i = 0; encryptionBoxes != null && i < encryptionBoxes.length; i++) {
+      TrackEncryptionBox encryptionBox = encryptionBoxes[i];
+      output.writeBoolean(encryptionBox != null);
+      if (encryptionBox != null) {
+        output.writeBoolean(encryptionBox.isEncrypted);
+        output.writeInt(encryptionBox.initializationVectorSize);
+        writeByteArray(output, encryptionBox.keyId);
+      }
+    }
+    output.writeInt(track.nalUnitLengthFieldLength);
+    writeLongArray(output, track.editListDurations);
+    writeLongArray(output, track.editListMediaTimes);
+  }
+
+  private static Track readTrack(DataInputStream input) throws IOException {
+    int id = input.readInt();
+    int type = input.readInt();
+    long timescale = input.readLong();
+    long movieTimescale = input.readLong();
+    long durationUs = input.readLong();
+    MediaFormat mediaFormat = readMediaFormat(input);
+    int encryptionBoxCount = input.readInt();
+    TrackEncryptionBox[] encryptionBoxes = null;
+    if (encryptionBoxCount != -1) {
+      encryptionBoxes = new TrackEncryptionBox[encryptionBoxCount];
+      for (int i = 0; i < encryptionBoxCount; i++) {
+        if (input.readBoolean()) {
+          boolean isEncrypted = input.readBoolean();
+          int initializationVectorSize = input.readInt();
+          encryptionBoxes[i] = new TrackEncryptionBox(isEncrypted, initializationVectorSize,
+              readByteArray(input));
+        }
+      }
+    }
+    int nalUnitLengthFieldLength = input.readInt();
+    long[] editListDurations = readLongArray(input);
+    long[] editListMediaTimes = readLongArray(input);
+    return new Track(id, type, timescale, movieTimescale, durationUs, mediaFormat, encryptionBoxes,
+        nalUnitLengthFieldLength, editListDurations, editListMediaTimes);
+  }
+
+  private static void writeMediaFormat(DataOutputStream output, MediaFormat format)
+      throws IOException {
+    writeString(output, format.trackId);
+    output.writeUTF(format.mimeType);
+    output.writeInt(format.bitrate);
+    output.writeInt(format.maxInputSize);
+    output.writeLong(format.durationUs);
+    output.writeInt(format.width);
+    output.writeInt(format.height);
+    output.writeInt(format.rotationDegrees);
+    output.writeFloat(format.pixelWidthHeightRatio);
+    output.writeInt(format.channelCount);
+    output.writeInt(format.sampleRate);
+    writeString(output, format.language);
+    output.writeLong(format.subsampleOffsetUs);
+    output.writeInt(format.initializationData.size());
+    for (int i = 0; i < format.initializationData.size(); i++) {
+      writeByteArray(output, format.initializationData.get(i));
+    }
+  }
+
+  /**
+   * Reads a format written by {@link #writeMediaFormat(DataOutputStream, MediaFormat)}, using the
+   * factory method that {@link AtomParsers} uses for the track type.
+   */
+  private static MediaFormat readMediaFormat(DataInputStream input) throws IOException {
+    String trackId = readString(input);
+    String mimeType = input.readUTF();
+    int bitrate = input.readInt();
+    int maxInputSize = input.readInt();
+    long durationUs = input.readLong();
+    int width = input.readInt();
+    int height = input.readInt();
+    int rotationDegrees = input.readInt();
+    float pixelWidthHeightRatio = input.readFloat();
+    int channelCount = input.readInt();
+    int sampleRate = input.readInt();
+    String language = readString(input);
+    long subsampleOffsetUs = input.readLong();
+    int initializationDataCount = input.readInt();
+    List<byte[]> initializationData = new ArrayList<>(initializationDataCount);
+    for (int i = 0; i < initializationDataCount; i++) {
+      initializationData.add(readByteArray(input));
+    }
+    if (MimeTypes.isVideo(mimeType)) {
+      return MediaFormat.createVideoFormat(trackId, mimeType, bitrate, maxInputSize, durationUs,
+          width, height, initializationData, rotationDegrees, pixelWidthHeightRatio);
+    } else if (MimeTypes.isAudio(mimeType)) {
+      return MediaFormat.createAudioFormat(trackId, mimeType, bitrate, maxInputSize, durationUs,
+          channelCount, sampleRate, initializationData, language);
+    } else {
+      return MediaFormat.createTextFormat(trackId, mimeType, bitrate, durationUs, language,
+          subsampleOffsetUs).copyWithMaxInputSize(maxInputSize);
+    }
+  }
+
+  /**
+   * Writes a sample table. A {@link CompactTrackSampleTable} is written in its encoded form. The
+   * samples of other tables are written compactly: offsets and timestamps as variable length
+   * differences from those of the previous sample, and sizes and flags as variable length integers.
+   */
+  private static void writeSampleTable(DataOutputStream output, TrackSampleTable sampleTable)
+      throws IOException {
+    output.writeInt(sampleTable.sampleCount);
+    output.writeInt(sampleTable.maximumSize);
+    if (sampleTable instanceof CompactTrackSampleTable) {
+      output.writeBoolean(true);
+      writeCompactSampleTable(output, (CompactTrackSampleTable) sampleTable);
+      return;
+    }
+    output.writeBoolean(false);
+    ArrayTrackSampleTable arrayTable = (ArrayTrackSampleTable) sampleTable;
+    long previousOffset = 0;
+    long previousTimestampUs = 0;
+    for (int i = 0; i < arrayTable.sampleCount; i++) {
+      writeVarLong(output, zigZagEncode(arrayTable.offsets[i] - previousOffset));
+      writeVarLong(output, zigZagEncode(arrayTable.timestampsUs[i] - previousTimestampUs));
+      writeVarLong(output, arrayTable.sizes[i]);
+      writeVarLong(output, arrayTable.flags[i]);
+      previousOffset = arrayTable.offsets[i];
+      previousTimestampUs = arrayTable.timestampsUs[i];
+    }
+  }
+
+  private static TrackSampleTable readSampleTable(DataInputStream input) throws IOException {
+    int sampleCount = input.readInt();
+    int maximumSize = input.readInt();
+    if (sampleCount < 0) {
+      throw new IOException("Invalid sample count: " + sampleCount);
+    }
+    if (input.readBoolean()) {
+      return readCompactSampleTable(input, sampleCount, maximumSize);
+    }
+    long[] offsets = new long[sampleCount];
+    long[] timestampsUs = new long[sampleCount];
+    int[] sizes = new int[sampleCount];
+    int[] flags = new int[sampleCount];
+    long offset = 0;
+    long timestampUs = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      offset += zigZagDecode(readVarLong(input));
+      timestampUs += zigZagDecode(readVarLong(input));
+      offsets[i] = offset;
+      timestampsUs[i] = timestampUs;
+      sizes[i] = (int) readVarLong(input);
+      flags[i] = (int) readVarLong(input);
+    }
+    return new ArrayTrackSampleTable(offsets, sizes, maximumSize, timestampsUs, flags);
+  }
+
+  private static void writeCompactSampleTable(DataOutputStream output,
+      CompactTrackSampleTable sampleTable) throws IOException {
+    output.writeLong(sampleTable.timescale);
+    output.writeLong(sampleTable.mediaTime);
+    writeVarIntArray(output, sampleTable.chunkFirstSampleIndices);
+    writeVarLongArray(output, sampleTable.chunkOffsets);
+    writeVarIntArray(output, sampleTable.chunkSizes);
+    writeVarIntArray(output, sampleTable.sampleOffsetsInChunk);
+    writeVarIntArray(output, sampleTable.timeRunFirstSampleIndices);
+    writeVarLongArray(output, sampleTable.timeRunFirstTimes);
+    writeVarIntArray(output, sampleTable.timeRunDeltas);
+    writeVarIntArray(output, sampleTable.offsetRunFirstSampleIndices);
+    writeVarIntArray(output, sampleTable.offsetRunValues);
+    writeLongArray(output, sampleTable.syncSamples);
+    output.writeBoolean(sampleTable.syncSampleIndices != null);
+    if (sampleTable.syncSampleIndices != null) {
+      writeVarIntArray(output, sampleTable.syncSampleIndices);
+      writeVarLongArray(output, sampleTable.syncSampleTimes);
+    }
+  }
+
+  private static CompactTrackSampleTable readCompactSampleTable(DataInputStream input,
+      int sampleCount, int maximumSize) throws IOException {
+    long timescale = input.readLong();
+    long mediaTime = input.readLong();
+    int[] chunkFirstSampleIndices = readVarIntArray(input);
+    long[] chunkOffsets = readVarLongArray(input);
+    int[] chunkSizes = readVarIntArray(input);
+    int[] sampleOffsetsInChunk = readVarIntArray(input);
+    int[] timeRunFirstSampleIndices = readVarIntArray(input);
+    long[] timeRunFirstTimes = readVarLongArray(input);
+    int[] timeRunDeltas = readVarIntArray(input);
+    int[] offsetRunFirstSampleIndices = readVarIntArray(input);
+    int[] offsetRunValues = readVarIntArray(input);
+    long[] syncSamples = readLongArray(input);
+    int[] syncSampleIndices = null;
+    long[] syncSampleTimes = null;
+    if (input.readBoolean()) {
+      syncSampleIndices = readVarIntArray(input);
+      syncSampleTimes = readVarLongArray(input);
+    }
+    if (sampleOffsetsInChunk.length != sampleCount || chunkFirstSampleIndices.length == 0
+        || chunkOffsets.length != chunkFirstSampleIndices.length
+        || chunkSizes.length != chunkFirstSampleIndices.length
+        || timeRunFirstSampleIndices.length == 0
+        || timeRunFirstTimes.length != timeRunFirstSampleIndices.length
+        || timeRunDeltas.length != timeRunFirstSampleIndices.length
+        || offsetRunValues.length != offsetRunFirstSampleIndices.length
+        || (syncSamples != null && syncSamples.length != (sampleCount + 63) / 64)
+        || (syncSamples == null) != (syncSampleIndices == null)
+        || (syncSampleIndices != null && syncSampleTimes.length != syncSampleIndices.length)) {
+      throw new IOException("Inconsistent compact sample table");
+    }
+    return new CompactTrackSampleTable(sampleCount, maximumSize, chunkFirstSampleIndices,
+        chunkOffsets, chunkSizes, sampleOffsetsInChunk, timeRunFirstSampleIndices,
+        timeRunFirstTimes, timeRunDeltas, offsetRunFirstSampleIndices, offsetRunValues,
+        syncSamples, syncSampleIndices, syncSampleTimes, timescale, mediaTime);
+  }
+
+  private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      output.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream input) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = input.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+  private static long zigZagEncode(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long zigZagDecode(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    output.writeBoolean(value != null);
+    if (value != null) {
+      output.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  private static void writeByteArray(DataOutputStream output, byte[] value) throws IOException {
+    output.writeInt(value.length);
+    output.write(value);
+  }
+
+  private static byte[] readByteArray(DataInputStream input) throws IOException {
+    byte[] value = new byte[input.readInt()];
+    input.readFully(value);
+    return value;
+  }
+
+  /**
+   * Writes an array as variable length differences from the previous value.
+   */
+  private static void writeVarIntArray(DataOutputStream output, int[] values) throws IOException {
+    output.writeInt(values.length);
+    long previousValue = 0;
+    for (int i = 0; i < values.length; i++) {
+      writeVarLong(output, zigZagEncode(values[i] - previousValue));
+      previousValue = values[i];
+    }
+  }
+
+  private static int[] readVarIntArray(DataInputStream input) throws IOException {
+    int[] values = new int[readArrayLength(input)];
+    long value = 0;
+    for (int i = 0; i < values.length; i++) {
+      value += zigZagDecode(readVarLong(input));
+      values[i] = (int) value;
+    }
+    return values;
+  }
+
+  /**
+   * Writes an array as variable length differences from the previous value.
+   */
+  private static void writeVarLongArray(DataOutputStream output, long[] values)
+      throws IOException {
+    output.writeInt(values.length);
+    long previousValue = 0;
+    for (int i = 0; i < values.length; i++) {
+      writeVarLong(output, zigZagEncode(values[i] - previousValue));
+      previousValue = values[i];
+    }
+  }
+
+  private static long[] readVarLongArray(DataInputStream input) throws IOException {
+    long[] values = new long[readArrayLength(input)];
+    long value = 0;
+    for (int i = 0; i < values.length; i++) {
+      value += zigZagDecode(readVarLong(input));
+      values[i] = value;
+    }
+    return values;
+  }
+
+  private static int readArrayLength(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid array length: " + length);
+    }
+    return length;
+  }
+
+  private static void writeLongArray(DataOutputStream output, long[] values) throws IOException {
+    output.writeInt(values == null ? -1 : values.length);
+    for (int i = 0; values != null && i < values.length; i++) {
+      output.writeLong(values[i]);
+    }
+  }
+
+  private static long[] readLongArray(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length == -1) {
+      return null;
+    }
+    long[] values = new long[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = input.readLong();
+    }
+    return values;
+  }
+
+  /**
+   * The tracks parsed from the moov atom of a stream.
+   */
+  /* package */ static final class Entry {
+
+    /**
+     * The length of the stream in bytes.
+     */
+    public final long length;
+    /**
+     * The ids with which the tracks were output, which are the indices of their trak atoms.
+     */
+    public final int[] trackIds;
+    /**
+     * The tracks.
+     */
+    public final Track[] tracks;
+    /**
+     * The sample tables of the tracks.
+     */
+    public final TrackSampleTable[] sampleTables;
+
+    private final long memoryBytes;
+
+    public Entry(long length, int[] trackIds, Track[] tracks, TrackSampleTable[] sampleTables) {
+      this.length = length;
+      this.trackIds = trackIds;
+      this.tracks = tracks;
+      this.sampleTables = sampleTables;
+      long memoryBytes = 0;
+      for (int i = 0; i < sampleTables.length; i++) {
+        memoryBytes += sampleTables[i].getMemoryBytes();
+      }
+      this.memoryBytes = memoryBytes;
+    }
+
+  }
+
+}
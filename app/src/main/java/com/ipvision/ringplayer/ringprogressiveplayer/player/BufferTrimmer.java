@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.player;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.extractor.ExtractorSampleSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.SharedAllocator;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Reduces the memory used for buffering in response to system memory pressure.
+ * <p>
+ * Pooled allocations that are not in use are released whenever memory is trimmed. When the system
+ * is running low on memory, the budget of the {@link SharedAllocator} is also reduced, and the
+ * registered {@link ExtractorSampleSource}s are asked to discard their back buffers, and then any
+ * buffered samples beyond a short distance ahead of the playback position. The full budget is
+ * restored once no pressure has been reported for {@link #BUDGET_RESTORE_DELAY_MS}.
+ */
+/* package */ final class BufferTrimmer implements ComponentCallbacks2 {
+
+  /**
+   * The time after the last report of memory pressure at which the full budget can be restored.
+   */
+  public static final long BUDGET_RESTORE_DELAY_MS = 60000;
+
+  private static final int LOW_BUDGET_DIVISOR = 2;
+  private static final long LOW_RETAINED_DURATION_US = 15000000;
+  private static final int CRITICAL_BUDGET_DIVISOR = 4;
+  private static final long CRITICAL_RETAINED_DURATION_US = 5000000;
+
+  private final SharedAllocator allocator;
+  private final int fullBudget;
+  private final ArrayList<WeakReference<ExtractorSampleSource>> sampleSources;
+
+  private long lastPressureTimeMs;
+
+  /**
+   * @param allocator The allocator whose budget should be reduced under memory pressure.
+   */
+  public BufferTrimmer(SharedAllocator allocator) {
+    this.allocator = allocator;
+    fullBudget = allocator.getTotalBudget();
+    sampleSources = new ArrayList<>();
+  }
+
+  /**
+   * Registers a sample source whose buffer should be trimmed under memory pressure. The source is
+   * only weakly referenced.
+   *
+   * @param sampleSource The sample source.
+   */
+  public synchronized void register(ExtractorSampleSource sampleSource) {
+    // Drop the sources that have been collected, so that the list doesn't grow with every source
+    // registered while there is no memory pressure.
+    for (int i = sampleSources.size() - 1; i >= 0; i--) {
+      if (sampleSources.get(i).get() == null) {
+        sampleSources.remove(i);
+      }
+    }
+    sampleSources.add(new WeakReference<>(sampleSource));
+  }
+
+  /**
+   * Restores the full budget if no memory pressure has been reported for
+   * {@link #BUDGET_RESTORE_DELAY_MS}.
+   */
+  public synchronized void maybeRestoreBudget() {
+    if (allocator.getTotalBudget() < fullBudget
+        && SystemClock.elapsedRealtime() - lastPressureTimeMs >= BUDGET_RESTORE_DELAY_MS) {
+      allocator.setTotalBudget(fullBudget);
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    boolean runningInForeground = level < TRIM_MEMORY_UI_HIDDEN;
+    if (level >= TRIM_MEMORY_COMPLETE
+        || (runningInForeground && level >= TRIM_MEMORY_RUNNING_CRITICAL)) {
+      reduceBuffers(CRITICAL_BUDGET_DIVISOR, CRITICAL_RETAINED_DURATION_US);
+    } else if (level >= TRIM_MEMORY_MODERATE
+        || (runningInForeground && level >= TRIM_MEMORY_RUNNING_LOW)) {
+      reduceBuffers(LOW_BUDGET_DIVISOR, LOW_RETAINED_DURATION_US);
+    }
+    allocator.trim();
+  }
+
+  @Override
+  public void onLowMemory() {
+    reduceBuffers(CRITICAL_BUDGET_DIVISOR, CRITICAL_RETAINED_DURATION_US);
+    allocator.trim();
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {
+    // Do nothing.
+  }
+
+  private synchronized void reduceBuffers(int budgetDivisor, long retainedDurationUs) {
+    lastPressureTimeMs = SystemClock.elapsedRealtime();
+    allocator.setTotalBudget(Math.min(allocator.getTotalBudget(), fullBudget / budgetDivisor));
+    for (int i = sampleSources.size() - 1; i >= 0; i--) {
+      ExtractorSampleSource sampleSource = sampleSources.get(i).get();
+      if (sampleSource == null) {
+        sampleSources.remove(i);
+      } else {
+        sampleSource.requestBufferTrim(retainedDurationUs);
+      }
+    }
+  }
+
+}
@@ -15,27 +15,48 @@
  */
 package com.ipvision.ringplayer.ringprogressiveplayer.player;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.media.MediaCodec;
 import android.net.Uri;
+import android.os.Handler;
 import android.util.Log;
 
 
 import com.ipvision.ringplayer.ringprogressiveplayer.audio.AudioCapabilities;
 import com.ipvision.ringplayer.ringprogressiveplayer.extractor.mp4.Mp4Extractor;
+import com.ipvision.ringplayer.ringprogressiveplayer.extractor.mp4.SampleTableCache;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.DefaultLoadControl;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.HeapSlidingPercentile;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.MediaCodecAudioTrackRenderer;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.MediaCodecVideoTrackRenderer;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.SampleSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.SystemClock;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.TrackRenderer;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
 
 import com.ipvision.ringplayer.ringprogressiveplayer.player.RingDemoPlayer.RendererBuilder;
+import com.ipvision.ringplayer.ringprogressiveplayer.extractor.ConcatenatingSampleSource;
 import com.ipvision.ringplayer.ringprogressiveplayer.extractor.Extractor;
 import com.ipvision.ringplayer.ringprogressiveplayer.extractor.ExtractorSampleSource;
 
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.Allocator;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.ConcurrentAllocator;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DataSource;
-import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultAllocator;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultBandwidthMeter;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultHttpDataSource;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultUriDataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.HttpDataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.LoadScheduler;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.ReadAheadDataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.SegmentedDataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.SharedAllocator;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.cache.Cache;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.cache.CacheDataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.cache.SimpleCache;
+
+import java.io.File;
 
 /**
  * A {@link RendererBuilder} for streams that can be read using an {@link Extractor}.
@@ -43,44 +64,101 @@ import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultUriDataSour
 public class ExtractorRendererBuilder implements RendererBuilder {
 
   private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+  // Each player buffers between these numbers of segments, depending on the device memory class.
+  private static final int MIN_BUFFER_SEGMENT_COUNT = 32;
   private static final int BUFFER_SEGMENT_COUNT = 256;
+  // The sample buffers of all players in the process share a budget of at most this many segments.
+  private static final int SHARED_BUFFER_SEGMENT_COUNT = 512;
+  // Fractions of the memory class used for the buffer of each player, and of all players.
+  private static final int BUFFER_MEMORY_CLASS_DIVISOR = 8;
+  private static final int SHARED_BUFFER_MEMORY_CLASS_DIVISOR = 4;
+  // Each track retains up to this fraction of the buffer size, and this duration, of read media, so
+  // that short rewinds are served from memory.
+  private static final int BACK_BUFFER_SIZE_DIVISOR = 8;
+  private static final int BACK_BUFFER_DURATION_MS = 10000;
+  private static final String CACHE_DIR_NAME = "media";
+  private static final String SAMPLE_TABLE_CACHE_DIR_NAME = "sample_tables";
+  private static final long CACHE_MAX_BYTES = 100 * 1024 * 1024;
+
+  // A cache directory must only be used by a single SimpleCache, so the cache is shared by all
+  // players in the process.
+  private static Cache cache;
+  private static SampleTableCache sampleTableCache;
+  private static SampleTableCache remoteSampleTableCache;
+  private static SharedAllocator sampleAllocator;
+  private static BufferTrimmer bufferTrimmer;
 
   private final Context context;
   private final String userAgent;
-  private final Uri uri;
+  private final Uri[] uris;
+  private final MediaPreloader preloader;
   private static final String TAG = "ExtractorRendererBuilder";
   int count = 0;
 
   public ExtractorRendererBuilder(Context context, String userAgent, Uri uri) {
+    this(context, userAgent, uri, null);
+  }
+
+  /**
+   * @param context A context.
+   * @param userAgent The user agent for HTTP requests.
+   * @param uri The uri of the media.
+   * @param preloader An optional {@link MediaPreloader}. If it has preloaded {@code uri}, the
+   *     renderers are built on the preloaded source, and playback starts from its buffer.
+   */
+  public ExtractorRendererBuilder(Context context, String userAgent, Uri uri,
+      MediaPreloader preloader) {
+    this(context, userAgent, new Uri[] {uri}, preloader);
+  }
+
+  /**
+   * @param context A context.
+   * @param userAgent The user agent for HTTP requests.
+   * @param uris The uris of the items of a playlist, which are played gaplessly one after another.
+   * @param preloader An optional {@link MediaPreloader}. If it has preloaded the first uri, the
+   *     renderers are built on the preloaded source, and playback starts from its buffer.
+   */
+  public ExtractorRendererBuilder(Context context, String userAgent, Uri[] uris,
+      MediaPreloader preloader) {
     this.context = context;
     this.userAgent = userAgent;
-    this.uri = uri;
+    this.uris = uris;
+    this.preloader = preloader;
   }
 
   @Override
   public void buildRenderers(RingDemoPlayer player) {
-
-    Allocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
-
-    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(player.getMainHandler(), null);
-    DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-     // Cache cache = new SimpleCache(context.getCacheDir(), new LeastRecentlyUsedCacheEvictor(1024 * 1024 * 10));
-    Log.d("ExtractorRendererBuilder", "Video URI : " + uri);
-     // CacheDataSource cacheDataSource = new CacheDataSource(cache, dataSource, false, false);
-    ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
-        BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE, new Mp4Extractor());
+    SampleSourceHolder source = preloader != null ? preloader.take(uris[0]) : null;
+    boolean preloaded = source != null;
+    if (!preloaded) {
+      source = buildSampleSource(context, userAgent, uris[0], player.getMainHandler());
+    }
+    ExtractorSampleSource[] itemSources = new ExtractorSampleSource[uris.length];
+    itemSources[0] = source.sampleSource;
+    for (int i = 1; i < uris.length; i++) {
+      // The later items of a playlist share the bandwidth meter and buffer budget of the first.
+      itemSources[i] = buildSampleSource(context, userAgent, uris[i], source.bandwidthMeter,
+          source.allocatorShare);
+    }
+    SampleSource sampleSource = uris.length == 1 ? itemSources[0]
+        : new ConcatenatingSampleSource(itemSources);
     MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
         sampleSource, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000, player.getMainHandler(),
         player, 50);
 
     MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
             null, true, player.getMainHandler(), player, AudioCapabilities.getCapabilities(context));
+    if (preloaded) {
+      // The renderers, or the concatenation they read from, have registered with the source, so
+      // the preloader's registration is no longer needed to keep it alive.
+      source.sampleSource.release();
+    }
 
     // Invoke the callback.
     TrackRenderer[] renderers = new TrackRenderer[RingDemoPlayer.RENDERER_COUNT];
     renderers[RingDemoPlayer.TYPE_VIDEO] = videoRenderer;
     renderers[RingDemoPlayer.TYPE_AUDIO] = audioRenderer;
-    player.onRenderers(renderers, bandwidthMeter);
+    player.onRenderers(renderers, source.bandwidthMeter, source.allocatorShare, itemSources);
   }
 
   @Override
@@ -88,4 +166,170 @@ public class ExtractorRendererBuilder implements RendererBuilder {
     // Do nothing.
   }
 
+  /**
+   * Builds an {@link ExtractorSampleSource} for a uri, together with the components that a player
+   * using it needs.
+   *
+   * @param context A context.
+   * @param userAgent The user agent for HTTP requests.
+   * @param uri The uri of the media.
+   * @param eventHandler A handler for bandwidth meter events, or null.
+   * @return A holder of the source and its components.
+   */
+  /* package */ static SampleSourceHolder buildSampleSource(Context context, String userAgent,
+      Uri uri, Handler eventHandler) {
+    // Sample data is held within a budget shared with the other players in the process.
+    SharedAllocator.Share sampleAllocatorShare = getSampleAllocator(context).createShare(1);
+    bufferTrimmer.maybeRestoreBudget();
+    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(eventHandler, null,
+        new SystemClock(), new HeapSlidingPercentile(
+            DefaultBandwidthMeter.DEFAULT_MAX_WEIGHT, DefaultBandwidthMeter.ESTIMATE_PERCENTILE));
+    ExtractorSampleSource sampleSource = buildSampleSource(context, userAgent, uri,
+        bandwidthMeter, sampleAllocatorShare);
+    return new SampleSourceHolder(sampleSource, bandwidthMeter, sampleAllocatorShare);
+  }
+
+  /**
+   * Builds an {@link ExtractorSampleSource} for a uri.
+   *
+   * @param context A context.
+   * @param userAgent The user agent for HTTP requests.
+   * @param uri The uri of the media.
+   * @param bandwidthMeter The bandwidth meter that measures the transfers of the source.
+   * @param sampleAllocator The allocator of the sample buffer of the source.
+   * @return The source.
+   */
+  private static ExtractorSampleSource buildSampleSource(Context context,
+      final String userAgent, Uri uri, final DefaultBandwidthMeter bandwidthMeter,
+      Allocator sampleAllocator) {
+    Allocator allocator = new ConcurrentAllocator(BUFFER_SEGMENT_SIZE);
+    int bufferSize = getBufferSegmentCount(context, BUFFER_MEMORY_CLASS_DIVISOR,
+        BUFFER_SEGMENT_COUNT) * BUFFER_SEGMENT_SIZE;
+    SegmentedDataSource httpDataSource = new SegmentedDataSource(
+        new SegmentedDataSource.HttpDataSourceFactory() {
+          @Override
+          public HttpDataSource createHttpDataSource() {
+            // Each range connection is measured as its own stream.
+            return new DefaultHttpDataSource(userAgent, null,
+                bandwidthMeter.newTransferListener());
+          }
+        }, allocator, bandwidthMeter);
+    DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, httpDataSource);
+    DataSource prefetchDataSource = null;
+    Log.d("ExtractorRendererBuilder", "Video URI : " + uri);
+    if (!Util.isLocalFileUri(uri)) {
+      Cache cache = getCache(context);
+      // Read ahead on a background thread, so that network and disk I/O overlap with extraction.
+      dataSource = new ReadAheadDataSource(new CacheDataSource(cache, dataSource, false, true),
+          allocator);
+      // Data fetched by the prefetch source is read back from the shared cache.
+      prefetchDataSource = new CacheDataSource(cache,
+          new DefaultHttpDataSource(userAgent, null, bandwidthMeter.newTransferListener()), false,
+          true);
+    }
+    // Loads of all players share one scheduler, which favours the players that are playing. Each
+    // source loads in bursts between the load control's watermarks, rather than continuously.
+    ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource,
+        prefetchDataSource, sampleAllocator, bufferSize,
+        ExtractorSampleSource.DEFAULT_MIN_LOADABLE_RETRY_COUNT_ON_DEMAND,
+        LoadScheduler.getDefault(),
+        new Mp4Extractor(getSampleTableCache(context, uri), getSampleTableCacheKey(uri)));
+    sampleSource.setLoadControl(new DefaultLoadControl());
+    sampleSource.setBackBuffer(bufferSize / BACK_BUFFER_SIZE_DIVISOR, BACK_BUFFER_DURATION_MS);
+    bufferTrimmer.register(sampleSource);
+    return sampleSource;
+  }
+
+  private static synchronized Cache getCache(Context context) {
+    if (cache == null) {
+      File cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+      cache = new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(CACHE_MAX_BYTES));
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the {@link SampleTableCache} for the content at a uri. The sample tables of local files
+   * are persisted, since their keys change whenever the files do. Responses from the network are
+   * read through the media cache, which does not expose their validators, so their sample tables
+   * are only held in memory.
+   */
+  private static synchronized SampleTableCache getSampleTableCache(Context context, Uri uri) {
+    if (!Util.isLocalFileUri(uri)) {
+      if (remoteSampleTableCache == null) {
+        remoteSampleTableCache = new SampleTableCache(null);
+      }
+      return remoteSampleTableCache;
+    }
+    if (sampleTableCache == null) {
+      sampleTableCache = new SampleTableCache(
+          new File(context.getApplicationContext().getCacheDir(), SAMPLE_TABLE_CACHE_DIR_NAME));
+    }
+    return sampleTableCache;
+  }
+
+  /**
+   * Returns the key that identifies the content at a uri in the {@link SampleTableCache}. The
+   * cache validates entries against the length of the stream, and the key of a local file also
+   * includes its last modified time.
+   */
+  private static String getSampleTableCacheKey(Uri uri) {
+    if (Util.isLocalFileUri(uri)) {
+      return uri + "#" + new File(uri.getPath()).lastModified();
+    }
+    return uri.toString();
+  }
+
+  private static synchronized SharedAllocator getSampleAllocator(Context context) {
+    if (sampleAllocator == null) {
+      int sharedBufferSegmentCount = Math.max(
+          getBufferSegmentCount(context, BUFFER_MEMORY_CLASS_DIVISOR, BUFFER_SEGMENT_COUNT),
+          getBufferSegmentCount(context, SHARED_BUFFER_MEMORY_CLASS_DIVISOR,
+              SHARED_BUFFER_SEGMENT_COUNT));
+      // Sample data is held on the heap. Data sources read into arrays, so holding it in direct
+      // allocations would add a copy rather than save one.
+      sampleAllocator = new SharedAllocator(new ConcurrentAllocator(BUFFER_SEGMENT_SIZE),
+          sharedBufferSegmentCount * BUFFER_SEGMENT_SIZE);
+      bufferTrimmer = new BufferTrimmer(sampleAllocator);
+      context.getApplicationContext().registerComponentCallbacks(bufferTrimmer);
+    }
+    return sampleAllocator;
+  }
+
+  /**
+   * Returns a number of buffer segments that occupies a fraction of the device memory class,
+   * clamped to a range.
+   *
+   * @param context A context.
+   * @param memoryClassDivisor The divisor of the memory class.
+   * @param maxSegmentCount The maximum number of segments.
+   * @return The number of segments.
+   */
+  private static int getBufferSegmentCount(Context context, int memoryClassDivisor,
+      int maxSegmentCount) {
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    long memoryClassBytes = (long) activityManager.getMemoryClass() * 1024 * 1024;
+    int segmentCount = (int) (memoryClassBytes / memoryClassDivisor / BUFFER_SEGMENT_SIZE);
+    return Math.max(MIN_BUFFER_SEGMENT_COUNT, Math.min(segmentCount, maxSegmentCount));
+  }
+
+  /**
+   * Holds an {@link ExtractorSampleSource} and the components that a player using it needs.
+   */
+  /* package */ static final class SampleSourceHolder {
+
+    public final ExtractorSampleSource sampleSource;
+    public final DefaultBandwidthMeter bandwidthMeter;
+    public final SharedAllocator.Share allocatorShare;
+
+    public SampleSourceHolder(ExtractorSampleSource sampleSource,
+        DefaultBandwidthMeter bandwidthMeter, SharedAllocator.Share allocatorShare) {
+      this.sampleSource = sampleSource;
+      this.bandwidthMeter = bandwidthMeter;
+      this.allocatorShare = allocatorShare;
+    }
+
+  }
+
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ConditionVariable;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.extractor.ExtractorSampleSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.LoadScheduler;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.PriorityHandlerThread;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Preloads media that is likely to be played next (e.g. the next items of a feed), without
+ * building a player, decoders or audio tracks.
+ * <p>
+ * Each preloaded uri gets an {@link ExtractorSampleSource}, which is prepared and then buffers a
+ * bounded amount of media from the start of the stream, loading at
+ * {@link LoadScheduler#PRIORITY_PRELOAD}. An {@link ExtractorRendererBuilder} that is given the
+ * preloader builds its renderers on the preloaded source, so that playback starts from the
+ * preloaded buffer rather than from the network.
+ */
+public final class MediaPreloader {
+
+  /**
+   * The default duration of media to preload, in milliseconds.
+   */
+  public static final int DEFAULT_PRELOAD_DURATION_MS = 5000;
+  /**
+   * The default maximum number of bytes of media to preload.
+   */
+  public static final int DEFAULT_PRELOAD_BYTES = 2 * 1024 * 1024;
+
+  private static final String TAG = "MediaPreloader";
+  private static final int PRELOAD_INTERVAL_MS = 100;
+
+  private final Context context;
+  private final String userAgent;
+  private final long preloadDurationUs;
+  private final long preloadBytes;
+  private final PriorityHandlerThread preloadThread;
+  private final Handler handler;
+  // Guarded by this.
+  private final HashMap<Uri, Preload> preloads;
+
+  private boolean released;
+  // Guarded by this.
+  private int pendingTakeCount;
+
+  /**
+   * @param context A context.
+   * @param userAgent The user agent for HTTP requests.
+   */
+  public MediaPreloader(Context context, String userAgent) {
+    this(context, userAgent, DEFAULT_PRELOAD_DURATION_MS, DEFAULT_PRELOAD_BYTES);
+  }
+
+  /**
+   * @param context A context.
+   * @param userAgent The user agent for HTTP requests.
+   * @param preloadDurationMs The duration of media to preload for each uri, in milliseconds.
+   * @param preloadBytes The maximum number of bytes of media to preload for each uri.
+   */
+  public MediaPreloader(Context context, String userAgent, int preloadDurationMs,
+      int preloadBytes) {
+    this.context = context.getApplicationContext();
+    this.userAgent = userAgent;
+    this.preloadDurationUs = preloadDurationMs * 1000L;
+    this.preloadBytes = preloadBytes;
+    preloadThread = new PriorityHandlerThread("MediaPreloader",
+        Process.THREAD_PRIORITY_BACKGROUND);
+    preloadThread.start();
+    handler = new Handler(preloadThread.getLooper());
+    preloads = new HashMap<>();
+  }
+
+  /**
+   * Starts preloading a uri. Does nothing if the uri is already being preloaded.
+   *
+   * @param uri The uri of the media.
+   */
+  public synchronized void preload(Uri uri) {
+    Assertions.checkState(!released);
+    if (preloads.containsKey(uri)) {
+      return;
+    }
+    Preload preload = new Preload(uri);
+    preloads.put(uri, preload);
+    handler.post(preload);
+  }
+
+  /**
+   * Cancels the preload of a uri, releasing anything it has buffered. Does nothing if the uri is
+   * not being preloaded.
+   *
+   * @param uri The uri of the media.
+   */
+  public synchronized void cancel(Uri uri) {
+    Preload preload = preloads.remove(uri);
+    if (preload != null) {
+      preload.release();
+    }
+  }
+
+  /**
+   * Returns whether the preload of a uri has buffered the requested amount of media.
+   *
+   * @param uri The uri of the media.
+   * @return Whether the preload of the uri has completed.
+   */
+  public synchronized boolean isPreloaded(Uri uri) {
+    Preload preload = preloads.get(uri);
+    return preload != null && preload.completed;
+  }
+
+  /**
+   * Cancels all preloads and releases the preloader.
+   */
+  public synchronized void release() {
+    released = true;
+    for (Preload preload : preloads.values()) {
+      preload.release();
+    }
+    preloads.clear();
+    if (pendingTakeCount == 0) {
+      preloadThread.quit();
+    }
+  }
+
+  /**
+   * Hands over the source of a preload, which stops preloading.
+   * <p>
+   * The caller also takes over the preloader's registration with the source, and should release
+   * it once it has registered with the source itself. The source's load is stopped on the preload
+   * thread before this method returns, and is resumed on the thread that prepares or enables the
+   * source next, so that the loader's callbacks are delivered to that thread.
+   *
+   * @param uri The uri of the media.
+   * @return The holder of the preloaded source, or null if the uri is not being preloaded.
+   */
+  /* package */ ExtractorRendererBuilder.SampleSourceHolder take(Uri uri) {
+    final Preload preload;
+    synchronized (this) {
+      preload = preloads.remove(uri);
+      if (preload == null) {
+        return null;
+      }
+      handler.removeCallbacks(preload);
+      pendingTakeCount++;
+    }
+    final ConditionVariable suspended = new ConditionVariable();
+    boolean posted = handler.post(new Runnable() {
+      @Override
+      public void run() {
+        preload.suspend(suspended);
+      }
+    });
+    if (posted) {
+      // The preload thread is kept running until the load has stopped, even if the preloader is
+      // released meanwhile.
+      suspended.block();
+    }
+    synchronized (this) {
+      pendingTakeCount--;
+      if (released && pendingTakeCount == 0) {
+        preloadThread.quit();
+      }
+      if (!posted) {
+        preload.release();
+        return null;
+      }
+    }
+    // The player takes the source over from here, at the priority it plays at.
+    return preload.source;
+  }
+
+  /**
+   * Prepares the source of a uri and buffers the start of the stream, on the preload thread.
+   */
+  private final class Preload implements Runnable {
+
+    private final Uri uri;
+
+    // Guarded by the preloader.
+    private ExtractorRendererBuilder.SampleSourceHolder source;
+    private boolean preloadStarted;
+    private boolean completed;
+
+    public Preload(Uri uri) {
+      this.uri = uri;
+    }
+
+    @Override
+    public void run() {
+      synchronized (MediaPreloader.this) {
+        if (preloads.get(uri) != this) {
+          // The preload was canceled or taken.
+          return;
+        }
+        try {
+          if (source == null) {
+            source = ExtractorRendererBuilder.buildSampleSource(context, userAgent, uri, null);
+            source.sampleSource.setLoadPriority(LoadScheduler.PRIORITY_PRELOAD);
+            source.sampleSource.register();
+          }
+          ExtractorSampleSource sampleSource = source.sampleSource;
+          if (!preloadStarted) {
+            if (!sampleSource.prepare(0)) {
+              sampleSource.maybeThrowError();
+              handler.postDelayed(this, PRELOAD_INTERVAL_MS);
+              return;
+            }
+            sampleSource.startPreload(0, preloadDurationUs, preloadBytes);
+            preloadStarted = true;
+          }
+          completed = sampleSource.continuePreload();
+          if (!completed) {
+            handler.postDelayed(this, PRELOAD_INTERVAL_MS);
+          }
+        } catch (IOException e) {
+          Log.w(TAG, "Preload failed: " + uri, e);
+          preloads.remove(uri);
+          release();
+        }
+      }
+    }
+
+    /**
+     * Stops the load of the source, if there is one, and then opens {@code suspended}. Must be
+     * called on the preload thread.
+     */
+    public void suspend(final ConditionVariable suspended) {
+      synchronized (MediaPreloader.this) {
+        if (source == null) {
+          suspended.open();
+          return;
+        }
+        source.sampleSource.suspendLoading(new Runnable() {
+          @Override
+          public void run() {
+            suspended.open();
+          }
+        });
+      }
+    }
+
+    public void release() {
+      handler.removeCallbacks(this);
+      if (source != null) {
+        source.sampleSource.release();
+        source.allocatorShare.close();
+        source = null;
+      }
+    }
+
+  }
+
+}
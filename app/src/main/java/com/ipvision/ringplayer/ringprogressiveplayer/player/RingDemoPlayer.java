@@ -7,9 +7,12 @@ import android.os.Looper;
 import android.view.Surface;
 
 import com.ipvision.ringplayer.ringprogressiveplayer.audio.AudioTrack;
+import com.ipvision.ringplayer.ringprogressiveplayer.extractor.ExtractorSampleSource;
 import com.ipvision.ringplayer.ringprogressiveplayer.metadata.MetadataTrackRenderer.MetadataRenderer;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.BandwidthMeter;
 import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DefaultBandwidthMeter;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.LoadScheduler;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.SharedAllocator;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.CodecCounters;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.DummyTrackRenderer;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.ExoPlaybackException;
@@ -110,6 +113,11 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
     private static final int RENDERER_BUILDING_STATE_BUILDING = 2;
     private static final int RENDERER_BUILDING_STATE_BUILT = 3;
 
+    // Weights of this player's share of the process-wide sample buffer budget.
+    private static final int ALLOCATOR_WEIGHT_PLAYING = 4;
+    private static final int ALLOCATOR_WEIGHT_VISIBLE = 2;
+    private static final int ALLOCATOR_WEIGHT_BACKGROUND = 1;
+
     private final RendererBuilder rendererBuilder;
     private final ExoPlayer player;
     private final PlayerControl playerControl;
@@ -127,6 +135,8 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
     private int videoTrackToRestore;
 
     private BandwidthMeter bandwidthMeter;
+    private SharedAllocator.Share allocatorShare;
+    private ExtractorSampleSource[] sampleSources;
     private boolean backgrounded;
 
 
@@ -165,6 +175,7 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
     public void setSurface(Surface surface) {
         this.surface = surface;
         pushSurface(false);
+        updateResourcePriority();
     }
     public Surface getSurface() {
         return surface;
@@ -172,6 +183,7 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
     public void blockingClearSurface() {
         surface = null;
         pushSurface(true);
+        updateResourcePriority();
     }
 
     public int getTrackCount(int type) {
@@ -186,13 +198,16 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
             player.stop();
         }
         rendererBuilder.cancel();
+        releaseAllocatorShare();
+        sampleSources = null;
         videoFormat = null;
         videoRenderer = null;
         rendererBuildingState = RENDERER_BUILDING_STATE_BUILDING;
         maybeReportPlayerState();
         rendererBuilder.buildRenderers(this);
     }
-    void onRenderers(TrackRenderer[] renderers, BandwidthMeter bandwidthMeter) {
+    void onRenderers(TrackRenderer[] renderers, BandwidthMeter bandwidthMeter,
+            SharedAllocator.Share allocatorShare, ExtractorSampleSource[] sampleSources) {
         for (int i = 0; i < RENDERER_COUNT; i++) {
             if (renderers[i] == null) {
                 // Convert a null renderer to a dummy renderer.
@@ -206,6 +221,9 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
                 : renderers[TYPE_AUDIO] instanceof MediaCodecTrackRenderer
                 ? ((MediaCodecTrackRenderer) renderers[TYPE_AUDIO]).codecCounters : null;
         this.bandwidthMeter = bandwidthMeter;
+        this.allocatorShare = allocatorShare;
+        this.sampleSources = sampleSources;
+        updateResourcePriority();
         pushSurface(false);
         player.prepare(renderers);
         rendererBuildingState = RENDERER_BUILDING_STATE_BUILT;
@@ -300,6 +318,7 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
     }
     public void setPlayWhenReady(boolean playWhenReady) {
         player.setPlayWhenReady(playWhenReady);
+        updateResourcePriority();
     }
     public void seekTo(long positionMs) {
         player.seekTo(positionMs);
@@ -309,6 +328,33 @@ public class RingDemoPlayer implements ExoPlayer.Listener, DefaultBandwidthMeter
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         surface = null;
         player.release();
+        releaseAllocatorShare();
+    }
+
+    /**
+     * Gives this player a larger share of the process-wide sample buffer budget while it is playing
+     * or visible than while it is preloading off-screen, and lets its loads run ahead of those of
+     * players that are not playing.
+     */
+    private void updateResourcePriority() {
+        boolean playWhenReady = player.getPlayWhenReady();
+        if (allocatorShare != null) {
+            allocatorShare.setWeight(playWhenReady ? ALLOCATOR_WEIGHT_PLAYING
+                    : surface != null ? ALLOCATOR_WEIGHT_VISIBLE : ALLOCATOR_WEIGHT_BACKGROUND);
+        }
+        if (sampleSources != null) {
+            for (ExtractorSampleSource sampleSource : sampleSources) {
+                sampleSource.setLoadPriority(playWhenReady ? LoadScheduler.PRIORITY_PLAYBACK
+                        : LoadScheduler.PRIORITY_PRELOAD);
+            }
+        }
+    }
+
+    private void releaseAllocatorShare() {
+        if (allocatorShare != null) {
+            allocatorShare.close();
+            allocatorShare = null;
+        }
     }
 
     public int getPlaybackState() {
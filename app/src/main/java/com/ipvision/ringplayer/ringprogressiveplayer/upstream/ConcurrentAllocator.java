@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link Allocator} that can be used concurrently from multiple threads without locking.
+ * <p>
+ * Released allocations are pooled in lock-free free lists, one per size class. Allocations of the
+ * default size are obtained through {@link #allocate()}. Additional size classes may be specified
+ * at construction, and allocations of those sizes obtained through {@link #allocate(int)}. Threads
+ * blocked in {@link #blockWhileTotalBytesAllocatedExceeds(int)} are only woken by a release that
+ * brings the number of allocated bytes within their limit.
+ */
+public final class ConcurrentAllocator implements Allocator {
+
+  private final int individualAllocationSize;
+  private final SizeClass[] sizeClasses;
+  private final SizeClass defaultSizeClass;
+  private final AtomicInteger totalBytesAllocated;
+  private final AtomicLong allocationCount;
+  private final AtomicLong pooledAllocationCount;
+  private final ConcurrentLinkedQueue<Waiter> waiters;
+
+  /**
+   * @param individualAllocationSize The length of each allocation obtained through
+   *     {@link #allocate()}.
+   */
+  public ConcurrentAllocator(int individualAllocationSize) {
+    this(individualAllocationSize, new int[0]);
+  }
+
+  /**
+   * @param individualAllocationSize The length of each allocation obtained through
+   *     {@link #allocate()}.
+   * @param additionalAllocationSizes The lengths of additional size classes, smaller or larger
+   *     than {@code individualAllocationSize}, that may be obtained through {@link #allocate(int)}.
+   */
+  public ConcurrentAllocator(int individualAllocationSize, int... additionalAllocationSizes) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    this.individualAllocationSize = individualAllocationSize;
+    int[] sizes = Arrays.copyOf(additionalAllocationSizes, additionalAllocationSizes.length + 1);
+    sizes[additionalAllocationSizes.length] = individualAllocationSize;
+    Arrays.sort(sizes);
+    sizeClasses = new SizeClass[sizes.length];
+    SizeClass defaultSizeClass = null;
+    for (int i = 0; i < sizes.length; i++) {
+      Assertions.checkArgument(sizes[i] > 0 && (i == 0 || sizes[i] != sizes[i - 1]));
+      sizeClasses[i] = new SizeClass(sizes[i]);
+      if (sizes[i] == individualAllocationSize) {
+        defaultSizeClass = sizeClasses[i];
+      }
+    }
+    this.defaultSizeClass = defaultSizeClass;
+    totalBytesAllocated = new AtomicInteger();
+    allocationCount = new AtomicLong();
+    pooledAllocationCount = new AtomicLong();
+    waiters = new ConcurrentLinkedQueue<>();
+  }
+
+  @Override
+  public Allocation allocate() {
+    return allocate(defaultSizeClass);
+  }
+
+  /**
+   * Obtain an {@link Allocation} from the smallest size class whose length is at least
+   * {@code minLength}.
+   * <p>
+   * The length of the returned {@link Allocation} is the length of its {@link Allocation#data}.
+   *
+   * @param minLength The minimum required length.
+   * @return The {@link Allocation}.
+   * @throws IllegalArgumentException If {@code minLength} exceeds the largest size class.
+   */
+  public Allocation allocate(int minLength) {
+    for (SizeClass sizeClass : sizeClasses) {
+      if (sizeClass.size >= minLength) {
+        return allocate(sizeClass);
+      }
+    }
+    throw new IllegalArgumentException();
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    SizeClass sizeClass = getSizeClass(allocation.data.length);
+    // Weak sanity check that the allocation probably originated from this pool.
+    Assertions.checkArgument(sizeClass != null);
+    sizeClass.available.offer(allocation);
+    sizeClass.availableCount.incrementAndGet();
+    int totalBytes = totalBytesAllocated.addAndGet(-sizeClass.size);
+    if (!waiters.isEmpty()) {
+      // Wake up only the threads whose limit has been reached.
+      for (Waiter waiter : waiters) {
+        if (totalBytes <= waiter.limit) {
+          LockSupport.unpark(waiter.thread);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void trim(int targetSize) {
+    int targetAvailableBytes = Math.max(0, targetSize - totalBytesAllocated.get());
+    int availableBytes = getAvailableBytes();
+    // Discard the largest allocations first.
+    for (int i = sizeClasses.length - 1; i >= 0 && availableBytes > targetAvailableBytes; i--) {
+      SizeClass sizeClass = sizeClasses[i];
+      while (availableBytes > targetAvailableBytes && sizeClass.available.poll() != null) {
+        sizeClass.availableCount.decrementAndGet();
+        availableBytes -= sizeClass.size;
+      }
+    }
+  }
+
+  @Override
+  public int getTotalBytesAllocated() {
+    return totalBytesAllocated.get();
+  }
+
+  @Override
+  public void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+    if (totalBytesAllocated.get() <= limit) {
+      return;
+    }
+    Waiter waiter = new Waiter(Thread.currentThread(), limit);
+    // The waiter is registered before the condition is re-checked, so that a release that brings
+    // the allocated size within the limit either is observed here or unparks this thread.
+    waiters.add(waiter);
+    try {
+      while (totalBytesAllocated.get() > limit) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        LockSupport.park(this);
+      }
+    } finally {
+      waiters.remove(waiter);
+    }
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  /**
+   * Returns the number of allocations that have been obtained from this allocator.
+   * <p>
+   * Sampling this value over time gives the allocation rate.
+   */
+  public long getAllocationCount() {
+    return allocationCount.get();
+  }
+
+  /**
+   * Returns the number of allocations that have been satisfied by reusing a pooled allocation,
+   * rather than by creating a new one.
+   */
+  public long getPooledAllocationCount() {
+    return pooledAllocationCount.get();
+  }
+
+  /**
+   * Returns the total number of bytes held in the pool, available for reuse.
+   */
+  public int getAvailableBytes() {
+    int availableBytes = 0;
+    for (SizeClass sizeClass : sizeClasses) {
+      availableBytes += sizeClass.availableCount.get() * sizeClass.size;
+    }
+    return availableBytes;
+  }
+
+  private Allocation allocate(SizeClass sizeClass) {
+    allocationCount.incrementAndGet();
+    totalBytesAllocated.addAndGet(sizeClass.size);
+    Allocation allocation = sizeClass.available.poll();
+    if (allocation != null) {
+      sizeClass.availableCount.decrementAndGet();
+      pooledAllocationCount.incrementAndGet();
+      return allocation;
+    }
+    return new Allocation(new byte[sizeClass.size], 0);
+  }
+
+  private SizeClass getSizeClass(int size) {
+    for (SizeClass sizeClass : sizeClasses) {
+      if (sizeClass.size == size) {
+        return sizeClass;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A free list of allocations of a single size.
+   */
+  private static final class SizeClass {
+
+    public final int size;
+    public final ConcurrentLinkedQueue<Allocation> available;
+    public final AtomicInteger availableCount;
+
+    public SizeClass(int size) {
+      this.size = size;
+      available = new ConcurrentLinkedQueue<>();
+      availableCount = new AtomicInteger();
+    }
+
+  }
+
+  /**
+   * A thread blocked until the allocated size drops to a limit.
+   */
+  private static final class Waiter {
+
+    public final Thread thread;
+    public final int limit;
+
+    public Waiter(Thread thread, int limit) {
+      this.thread = thread;
+      this.limit = limit;
+    }
+
+  }
+
+}
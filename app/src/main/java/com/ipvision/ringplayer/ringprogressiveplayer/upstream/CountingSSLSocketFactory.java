@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * An {@link SSLSocketFactory} that delegates to another, counting the sockets created by each
+ * thread.
+ * <p>
+ * An {@link javax.net.ssl.HttpsURLConnection} creates a socket through its factory only when it
+ * establishes a new connection, and connects on the calling thread. Comparing the count before and
+ * after connecting therefore tells whether the connection was taken from the platform's pool. The
+ * pool only shares connections between requests that use the same factory, so a single instance is
+ * used for each delegate.
+ */
+/* package */ final class CountingSSLSocketFactory extends SSLSocketFactory {
+
+  private static final ThreadLocal<int[]> SOCKET_COUNT = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private static CountingSSLSocketFactory instance;
+
+  private final SSLSocketFactory delegate;
+
+  /**
+   * Returns the counting factory that wraps the specified factory.
+   *
+   * @param delegate The factory to which socket creation should be delegated.
+   * @return The counting factory.
+   */
+  public static synchronized CountingSSLSocketFactory wrap(SSLSocketFactory delegate) {
+    if (delegate instanceof CountingSSLSocketFactory) {
+      return (CountingSSLSocketFactory) delegate;
+    }
+    if (instance == null || instance.delegate != delegate) {
+      instance = new CountingSSLSocketFactory(delegate);
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the number of sockets that have been created by counting factories on the calling
+   * thread.
+   */
+  public static int getThreadSocketCount() {
+    return SOCKET_COUNT.get()[0];
+  }
+
+  private CountingSSLSocketFactory(SSLSocketFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String[] getDefaultCipherSuites() {
+    return delegate.getDefaultCipherSuites();
+  }
+
+  @Override
+  public String[] getSupportedCipherSuites() {
+    return delegate.getSupportedCipherSuites();
+  }
+
+  @Override
+  public Socket createSocket() throws IOException {
+    return onSocketCreated(delegate.createSocket());
+  }
+
+  @Override
+  public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+      throws IOException {
+    return onSocketCreated(delegate.createSocket(socket, host, port, autoClose));
+  }
+
+  @Override
+  public Socket createSocket(String host, int port) throws IOException {
+    return onSocketCreated(delegate.createSocket(host, port));
+  }
+
+  @Override
+  public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+      throws IOException {
+    return onSocketCreated(delegate.createSocket(host, port, localHost, localPort));
+  }
+
+  @Override
+  public Socket createSocket(InetAddress host, int port) throws IOException {
+    return onSocketCreated(delegate.createSocket(host, port));
+  }
+
+  @Override
+  public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+      int localPort) throws IOException {
+    return onSocketCreated(delegate.createSocket(address, port, localAddress, localPort));
+  }
+
+  private static Socket onSocketCreated(Socket socket) {
+    SOCKET_COUNT.get()[0]++;
+    return socket;
+  }
+
+}
@@ -15,8 +15,6 @@
  */
 package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
 
-import android.util.Log;
-
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
 
@@ -35,7 +33,6 @@ public final class DefaultAllocator implements Allocator {
   private int allocatedCount;
   private int availableCount;
   private Allocation[] availableAllocations;
-  private static final String TAG = "DefaultAllocator";
 
   /**
    * Constructs an initially empty pool.
@@ -55,7 +52,6 @@ public final class DefaultAllocator implements Allocator {
    * @param initialAllocationCount The number of allocations to create up front.
    */
   public DefaultAllocator(int individualAllocationSize, int initialAllocationCount) {
-      Log.d(TAG, "individualAllocationSize : " + individualAllocationSize + " initialAllocationCount: " + initialAllocationCount);
     Assertions.checkArgument(individualAllocationSize > 0);
     Assertions.checkArgument(initialAllocationCount >= 0);
     this.individualAllocationSize = individualAllocationSize;
@@ -65,7 +61,6 @@ public final class DefaultAllocator implements Allocator {
       initialAllocationBlock = new byte[initialAllocationCount * individualAllocationSize];
       for (int i = 0; i < initialAllocationCount; i++) {
         int allocationOffset = i * individualAllocationSize;
-          Log.d(TAG, "allocationOffset : " + allocationOffset);
         availableAllocations[i] = new Allocation(initialAllocationBlock, allocationOffset);
       }
     } else {
@@ -83,13 +78,11 @@ public final class DefaultAllocator implements Allocator {
     } else {
       allocation = new Allocation(new byte[individualAllocationSize], 0);
     }
-    Log.d("DefaultAllocator","Allocated Count : " + allocatedCount);
     return allocation;
   }
 
   @Override
   public synchronized void release(Allocation allocation) {
-    Log.d(TAG,"release called...");
     // Weak sanity check that the allocation probably originated from this pool.
     Assertions.checkArgument(allocation.data == initialAllocationBlock
         || allocation.data.length == individualAllocationSize);
@@ -105,7 +98,6 @@ public final class DefaultAllocator implements Allocator {
     //trim gets called onLoadCancelled
   @Override
   public synchronized void trim(int targetSize) {
-      Log.d(TAG,"trim called...");
     int targetAllocationCount = Util.ceilDivide(targetSize, individualAllocationSize);
     int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount);
     if (targetAvailableCount >= availableCount) {
@@ -22,24 +22,60 @@ import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.Clock;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.SlidingPercentile;
 import com.ipvision.ringplayer.ringprogressiveplayer.util.SystemClock;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.WeightedPercentile;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Counts transferred bytes while transfers are open and creates a bandwidth sample and updated
- * bandwidth estimate each time a transfer ends.
+ * bandwidth estimate each time a measurement window closes. A window closes when a transfer ends,
+ * and also while transfers remain open each time the window reaches a configured duration or number
+ * of bytes, so that long transfers (e.g. of a whole progressive stream) produce estimates as they
+ * progress.
+ * <p>
+ * Each data source that may transfer concurrently with others should be given its own listener
+ * obtained from {@link #newTransferListener()}. Every such stream is measured in its own windows,
+ * and each sample is the sum of the most recent throughput of all streams that are currently
+ * active, so that overlapping transfers (e.g. a prefetch alongside playback, or several range
+ * connections) produce an aggregate estimate rather than distorting one another's windows.
+ * Transfers reported to the meter itself are measured in a single shared window. Counting
+ * transferred bytes does not take a lock; the meter is only locked when a window closes.
  */
 public final class DefaultBandwidthMeter implements BandwidthMeter {
 
   public static final int DEFAULT_MAX_WEIGHT = 2000;
+  /**
+   * The percentile of the observed bandwidth samples that is used as the bitrate estimate.
+   */
+  public static final float ESTIMATE_PERCENTILE = 0.5f;
+  /**
+   * The default duration after which an in-flight measurement window is closed, in milliseconds.
+   */
+  public static final int DEFAULT_SAMPLE_INTERVAL_MS = 2000;
+  /**
+   * The default number of bytes after which an in-flight measurement window is closed.
+   */
+  public static final int DEFAULT_SAMPLE_BYTES = 1024 * 1024;
+
+  /**
+   * The number of sample intervals after which the throughput of an active stream that has not
+   * closed a window is no longer included in the aggregate (e.g. because it is stalled).
+   */
+  private static final int STALE_STREAM_INTERVAL_COUNT = 2;
 
   private final Handler eventHandler;
   private final EventListener eventListener;
   private final Clock clock;
-  private final SlidingPercentile slidingPercentile;
+  private final WeightedPercentile slidingPercentile;
+  private final int sampleIntervalMs;
+  private final int sampleBytes;
+  private final Stream sharedStream;
+  // Guarded by this.
+  private final ArrayList<Stream> activeStreams;
 
-  private long bytesAccumulator;
-  private long startTimeMs;
-  private long bitrateEstimate;
-  private int streamCount;
+  private volatile long bitrateEstimate;
   private static String TAG = "DefaultBandwidthMeter";
 
   public DefaultBandwidthMeter() {
@@ -60,49 +96,126 @@ public final class DefaultBandwidthMeter implements BandwidthMeter {
 
   public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener, Clock clock,
                                int maxWeight) {
+    this(eventHandler, eventListener, clock, new SlidingPercentile(maxWeight));
+  }
+
+  /**
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param clock The clock used to time transfers.
+   * @param slidingPercentile The estimator of the {@link #ESTIMATE_PERCENTILE} percentile of the
+   *     observed bandwidth samples, e.g. a {@link SlidingPercentile} or a
+   *     {@link com.ipvision.ringplayer.ringprogressiveplayer.util.HeapSlidingPercentile} tracking
+   *     {@link #ESTIMATE_PERCENTILE}.
+   */
+  public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener, Clock clock,
+                               WeightedPercentile slidingPercentile) {
+    this(eventHandler, eventListener, clock, slidingPercentile, DEFAULT_SAMPLE_INTERVAL_MS,
+        DEFAULT_SAMPLE_BYTES);
+  }
+
+  /**
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param clock The clock used to time transfers.
+   * @param slidingPercentile The estimator of the {@link #ESTIMATE_PERCENTILE} percentile of the
+   *     observed bandwidth samples.
+   * @param sampleIntervalMs The duration after which an in-flight measurement window is closed
+   *     and sampled, in milliseconds.
+   * @param sampleBytes The number of bytes after which an in-flight measurement window is closed
+   *     and sampled.
+   */
+  public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener, Clock clock,
+                               WeightedPercentile slidingPercentile, int sampleIntervalMs,
+                               int sampleBytes) {
     this.eventHandler = eventHandler;
     this.eventListener = eventListener;
     this.clock = clock;
-    this.slidingPercentile = new SlidingPercentile(maxWeight);
+    this.slidingPercentile = slidingPercentile;
+    this.sampleIntervalMs = sampleIntervalMs;
+    this.sampleBytes = sampleBytes;
+    sharedStream = new Stream();
+    activeStreams = new ArrayList<>();
     bitrateEstimate = NO_ESTIMATE;
   }
 
+  /**
+   * Returns a new {@link TransferListener} that reports to this meter as a separate stream.
+   * <p>
+   * The returned listener should be used by a single data source, whose transfers are sequential.
+   * Its throughput is measured independently of other streams, and contributes to the aggregate
+   * estimate of this meter.
+   *
+   * @return A new {@link TransferListener} for a single stream.
+   */
+  public TransferListener newTransferListener() {
+    return new Stream();
+  }
+
   @Override
-  public synchronized long getBitrateEstimate() {
+  public long getBitrateEstimate() {
     return bitrateEstimate;
   }
 
   @Override
-  public synchronized void onTransferStart() {
-    if (streamCount == 0) {
-      startTimeMs = clock.elapsedRealtime();
-    }
-    streamCount++;
+  public void onTransferStart() {
+    sharedStream.onTransferStart();
   }
 
   @Override
-  public synchronized void onBytesTransferred(int bytes) {
-    bytesAccumulator += bytes;
+  public void onBytesTransferred(int bytes) {
+    sharedStream.onBytesTransferred(bytes);
   }
 
   @Override
-  public synchronized void onTransferEnd() {
-    Assertions.checkState(streamCount > 0);
+  public void onTransferEnd() {
+    sharedStream.onTransferEnd();
+  }
+
+  private synchronized void onStreamStarted(Stream stream) {
+    activeStreams.add(stream);
+  }
+
+  /**
+   * Closes the current measurement window of a stream, adds an aggregate sample and updates the
+   * bitrate estimate if the window has non-zero duration.
+   *
+   * @param stream The stream whose window should be closed.
+   * @param transferEnded Whether the window is being closed because a transfer ended, rather than
+   *     because it became full.
+   * @param streamEnded Whether the stream is no longer active.
+   */
+  private synchronized void onStreamWindowEnd(Stream stream, boolean transferEnded,
+      boolean streamEnded) {
     long nowMs = clock.elapsedRealtime();
-    int elapsedMs = (int) (nowMs - startTimeMs);
+    int elapsedMs = (int) (nowMs - stream.windowStartTimeMs);
+    long bytes = stream.windowBytes.get();
+    if (!transferEnded && elapsedMs < sampleIntervalMs && bytes < sampleBytes) {
+      // Another thread closed the window after this one found it full.
+      return;
+    }
+    bytes = stream.windowBytes.getAndAdd(-bytes);
+    stream.windowStartTimeMs = nowMs;
     if (elapsedMs > 0) {
-      float bitsPerSecond = (bytesAccumulator * 8000) / elapsedMs;
-      slidingPercentile.addSample((int) Math.sqrt(bytesAccumulator), bitsPerSecond);
-      float bandwidthEstimateFloat = slidingPercentile.getPercentile(0.5f);
+      stream.bitsPerSecond = (bytes * 8000) / elapsedMs;
+      stream.lastWindowEndTimeMs = nowMs;
+      long staleTimeMs = nowMs - (long) sampleIntervalMs * STALE_STREAM_INTERVAL_COUNT;
+      float aggregateBitsPerSecond = 0;
+      for (int i = 0; i < activeStreams.size(); i++) {
+        Stream activeStream = activeStreams.get(i);
+        if (activeStream.lastWindowEndTimeMs >= staleTimeMs) {
+          aggregateBitsPerSecond += activeStream.bitsPerSecond;
+        }
+      }
+      slidingPercentile.addSample((int) Math.sqrt(bytes), aggregateBitsPerSecond);
+      float bandwidthEstimateFloat = slidingPercentile.getPercentile(ESTIMATE_PERCENTILE);
       bitrateEstimate = Float.isNaN(bandwidthEstimateFloat) ? NO_ESTIMATE
           : (long) bandwidthEstimateFloat;
-      notifyBandwidthSample(elapsedMs, bytesAccumulator, bitrateEstimate);
+      notifyBandwidthSample(elapsedMs, bytes, bitrateEstimate);
     }
-    streamCount--;
-    if (streamCount > 0) {
-      startTimeMs = nowMs;
+    if (streamEnded) {
+      activeStreams.remove(stream);
     }
-    bytesAccumulator = 0;
   }
 
   private void notifyBandwidthSample(final int elapsedMs, final long bytes, final long bitrate) {
@@ -117,4 +230,56 @@ public final class DefaultBandwidthMeter implements BandwidthMeter {
     }
   }
 
+  /**
+   * A stream of transfers that is measured in its own windows.
+   * <p>
+   * Transfers of a stream may overlap, in which case they share the stream's window.
+   */
+  private final class Stream implements TransferListener {
+
+    private final AtomicInteger transferCount;
+    private final AtomicLong windowBytes;
+
+    // Written with the meter locked.
+    private volatile long windowStartTimeMs;
+    // Guarded by the meter.
+    private long lastWindowEndTimeMs;
+    private float bitsPerSecond;
+
+    public Stream() {
+      transferCount = new AtomicInteger();
+      windowBytes = new AtomicLong();
+      lastWindowEndTimeMs = Long.MIN_VALUE;
+    }
+
+    @Override
+    public void onTransferStart() {
+      if (transferCount.getAndIncrement() == 0) {
+        synchronized (DefaultBandwidthMeter.this) {
+          windowStartTimeMs = clock.elapsedRealtime();
+          windowBytes.set(0);
+          onStreamStarted(this);
+        }
+      }
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+      long windowBytes = this.windowBytes.addAndGet(bytes);
+      if (windowBytes >= sampleBytes
+          || clock.elapsedRealtime() - windowStartTimeMs >= sampleIntervalMs) {
+        // Close the current measurement window, and start a new one for the open transfers.
+        onStreamWindowEnd(this, false, false);
+      }
+    }
+
+    @Override
+    public void onTransferEnd() {
+      int remainingTransferCount = transferCount.decrementAndGet();
+      Assertions.checkState(remainingTransferCount >= 0);
+      onStreamWindowEnd(this, true, remainingTransferCount == 0);
+    }
+
+  }
+
 }
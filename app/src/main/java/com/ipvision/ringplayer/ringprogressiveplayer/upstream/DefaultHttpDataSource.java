@@ -35,10 +35,13 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.net.ssl.HttpsURLConnection;
+
 /**
  * A {@link HttpDataSource} that uses Android's {@link HttpURLConnection}.
  * <p>
@@ -59,10 +62,13 @@ public class DefaultHttpDataSource implements HttpDataSource {
   public static final int DEFAULT_READ_TIMEOUT_MILLIS = 8 * 1000;
 
   private static final int MAX_REDIRECTS = 20; // Same limit as okhttp.
+  private static final long MAX_BYTES_TO_DRAIN = 32 * 1024;
   private static final String TAG = "DefaultHttpDataSource";
   private static final Pattern CONTENT_RANGE_HEADER =
       Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
   private static final AtomicReference<byte[]> skipBufferReference = new AtomicReference<>();
+  private static final AtomicInteger reusedConnectionCount = new AtomicInteger();
+  private static final AtomicInteger newConnectionCount = new AtomicInteger();
 
   private final boolean allowCrossProtocolRedirects;
   private final int connectTimeoutMillis;
@@ -71,6 +77,7 @@ public class DefaultHttpDataSource implements HttpDataSource {
   private final Predicate<String> contentTypePredicate;
   private final HashMap<String, String> requestProperties;
   private final TransferListener listener;
+  private final boolean keepConnectionsAlive;
 
   private DataSpec dataSpec;
   private HttpURLConnection connection;
@@ -83,6 +90,25 @@ public class DefaultHttpDataSource implements HttpDataSource {
   private long bytesSkipped;
   private long bytesRead;
 
+  /**
+   * Returns the number of HTTPS connections opened by sources that keep connections alive that
+   * were taken from the platform's connection pool, rather than newly established.
+   * <p>
+   * Only HTTPS connections are counted, since establishing a plain HTTP connection can't be
+   * observed through {@link HttpURLConnection}.
+   */
+  public static int getReusedConnectionCount() {
+    return reusedConnectionCount.get();
+  }
+
+  /**
+   * Returns the number of HTTPS connections opened by sources that keep connections alive that
+   * were newly established. See {@link #getReusedConnectionCount()}.
+   */
+  public static int getNewConnectionCount() {
+    return newConnectionCount.get();
+  }
+
   /**
    * @param userAgent The User-Agent string that should be used.
    * @param contentTypePredicate An optional {@link Predicate}. If a content type is
@@ -139,6 +165,31 @@ public class DefaultHttpDataSource implements HttpDataSource {
   public DefaultHttpDataSource(String userAgent, Predicate<String> contentTypePredicate,
                                TransferListener listener, int connectTimeoutMillis, int readTimeoutMillis,
                                boolean allowCrossProtocolRedirects) {
+    this(userAgent, contentTypePredicate, listener, connectTimeoutMillis, readTimeoutMillis,
+        allowCrossProtocolRedirects, true);
+  }
+
+  /**
+   * @param userAgent The User-Agent string that should be used.
+   * @param contentTypePredicate An optional {@link Predicate}. If a content type is
+   *     rejected by the predicate then a {@link HttpDataSource.InvalidContentTypeException} is
+   *     thrown from {@link #open(DataSpec)}.
+   * @param listener An optional listener.
+   * @param connectTimeoutMillis The connection timeout, in milliseconds. A timeout of zero is
+   *     interpreted as an infinite timeout. Pass {@link #DEFAULT_CONNECT_TIMEOUT_MILLIS} to use
+   *     the default value.
+   * @param readTimeoutMillis The read timeout, in milliseconds. A timeout of zero is interpreted
+   *     as an infinite timeout. Pass {@link #DEFAULT_READ_TIMEOUT_MILLIS} to use the default value.
+   * @param allowCrossProtocolRedirects Whether cross-protocol redirects (i.e. redirects from HTTP
+   *     to HTTPS and vice versa) are enabled.
+   * @param keepConnectionsAlive Whether a connection whose response has little left to read when
+   *     the source is closed is drained and returned to the platform's connection pool, so that a
+   *     subsequent request to the same host can reuse it. If false, connections are always
+   *     disconnected when the source is closed.
+   */
+  public DefaultHttpDataSource(String userAgent, Predicate<String> contentTypePredicate,
+                               TransferListener listener, int connectTimeoutMillis, int readTimeoutMillis,
+                               boolean allowCrossProtocolRedirects, boolean keepConnectionsAlive) {
     this.userAgent = Assertions.checkNotEmpty(userAgent);
     this.contentTypePredicate = contentTypePredicate;
     this.listener = listener;
@@ -146,6 +197,7 @@ public class DefaultHttpDataSource implements HttpDataSource {
     this.connectTimeoutMillis = connectTimeoutMillis;
     this.readTimeoutMillis = readTimeoutMillis;
     this.allowCrossProtocolRedirects = allowCrossProtocolRedirects;
+    this.keepConnectionsAlive = keepConnectionsAlive;
   }
 
   @Override
@@ -263,18 +315,28 @@ public class DefaultHttpDataSource implements HttpDataSource {
 
   @Override
   public void close() throws HttpDataSourceException {
+    boolean reusable = false;
     try {
       if (inputStream != null) {
-        Util.maybeTerminateInputStream(connection, bytesRemaining());
+        boolean drained = keepConnectionsAlive && drainInputStream();
+        if (!drained) {
+          Util.maybeTerminateInputStream(connection, bytesRemaining());
+        }
         try {
           inputStream.close();
         } catch (IOException e) {
           throw new HttpDataSourceException(e, dataSpec);
         }
+        reusable = drained;
       }
     } finally {
       inputStream = null;
-      closeConnectionQuietly();
+      if (reusable) {
+        // Closing the fully read stream without disconnecting returns the connection to the pool.
+        connection = null;
+      } else {
+        closeConnectionQuietly();
+      }
       if (opened) {
         opened = false;
         if (listener != null) {
@@ -405,6 +467,14 @@ public class DefaultHttpDataSource implements HttpDataSource {
     }
     connection.setInstanceFollowRedirects(followRedirects);
     connection.setDoOutput(postBody != null);
+    HttpsURLConnection httpsConnection = null;
+    if (keepConnectionsAlive && connection instanceof HttpsURLConnection) {
+      // Count the TLS sockets created while connecting, to tell whether the connection was pooled.
+      httpsConnection = (HttpsURLConnection) connection;
+      httpsConnection.setSSLSocketFactory(
+          CountingSSLSocketFactory.wrap(httpsConnection.getSSLSocketFactory()));
+    }
+    int socketCountBeforeConnect = CountingSSLSocketFactory.getThreadSocketCount();
     if (postBody != null) {
       connection.setFixedLengthStreamingMode(postBody.length);
       connection.connect();
@@ -414,6 +484,13 @@ public class DefaultHttpDataSource implements HttpDataSource {
     } else {
       connection.connect();
     }
+    if (httpsConnection != null) {
+      if (CountingSSLSocketFactory.getThreadSocketCount() == socketCountBeforeConnect) {
+        reusedConnectionCount.incrementAndGet();
+      } else {
+        newConnectionCount.incrementAndGet();
+      }
+    }
     return connection;
   }
 
@@ -566,6 +643,49 @@ public class DefaultHttpDataSource implements HttpDataSource {
     return read;
   }
 
+  /**
+   * Reads and discards the remainder of the opened range if it's small enough, so that the
+   * underlying connection can be returned to the pool rather than being torn down. This lets
+   * bounded range requests that are read to (nearly) the end reuse their connection. A progressive
+   * connection that is closed mid-stream has too much left to drain, and is disconnected.
+   *
+   * @return Whether the remainder of the response was consumed.
+   */
+  private boolean drainInputStream() {
+    long bytesRemaining = bytesRemaining();
+    if (bytesSkipped != bytesToSkip || bytesRemaining == C.LENGTH_UNBOUNDED
+        || bytesRemaining > MAX_BYTES_TO_DRAIN) {
+      return false;
+    }
+
+    // Acquire the shared skip buffer.
+    byte[] skipBuffer = skipBufferReference.getAndSet(null);
+    if (skipBuffer == null) {
+      skipBuffer = new byte[4096];
+    }
+
+    try {
+      while (bytesRemaining > 0) {
+        int readLength = (int) Math.min(bytesRemaining, skipBuffer.length);
+        int read = inputStream.read(skipBuffer, 0, readLength);
+        if (read == -1) {
+          return false;
+        }
+        bytesRead += read;
+        bytesRemaining -= read;
+        if (listener != null) {
+          listener.onBytesTransferred(read);
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      // Release the shared skip buffer.
+      skipBufferReference.set(skipBuffer);
+    }
+  }
+
   /**
    * Closes the current connection quietly, if there is one.
    */
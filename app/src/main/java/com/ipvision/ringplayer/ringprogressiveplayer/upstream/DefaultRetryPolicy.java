@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.HttpDataSource.HttpDataSourceException;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.HttpDataSource.InvalidContentTypeException;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.HttpDataSource.InvalidResponseCodeException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A {@link RetryPolicy} that retries with exponential backoff and jitter, classifying HTTP errors
+ * by their cause.
+ * <p>
+ * Client errors (4xx responses other than 408 and 429) and unexpected content types are not
+ * retried. A load that fails at the connection level (e.g. because a connection was dropped or
+ * timed out) is retried immediately the first time, since such failures are usually transient.
+ * Other errors, and later retries, back off exponentially from the initial delay up to the maximum
+ * delay, less a random fraction of up to the jitter factor so that loads failing together do not
+ * retry in lockstep. A {@code Retry-After} header (in seconds) of a response that is retried is
+ * honored, up to the maximum delay.
+ */
+public final class DefaultRetryPolicy implements RetryPolicy {
+
+  /**
+   * The default delay before the first backed off retry, in milliseconds.
+   */
+  public static final int DEFAULT_INITIAL_DELAY_MS = 500;
+  /**
+   * The default maximum delay before a retry, in milliseconds.
+   */
+  public static final int DEFAULT_MAX_DELAY_MS = 5000;
+  /**
+   * The default maximum fraction of a delay that is removed at random.
+   */
+  public static final float DEFAULT_JITTER_FACTOR = 0.5f;
+
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
+
+  private final int initialDelayMs;
+  private final int maxDelayMs;
+  private final float jitterFactor;
+  private final Random random;
+
+  public DefaultRetryPolicy() {
+    this(DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_JITTER_FACTOR);
+  }
+
+  /**
+   * @param initialDelayMs The delay before the first backed off retry, in milliseconds.
+   * @param maxDelayMs The maximum delay before a retry, in milliseconds.
+   * @param jitterFactor The maximum fraction of a delay that is removed at random, between 0 and 1.
+   */
+  public DefaultRetryPolicy(int initialDelayMs, int maxDelayMs, float jitterFactor) {
+    this.initialDelayMs = initialDelayMs;
+    this.maxDelayMs = maxDelayMs;
+    this.jitterFactor = jitterFactor;
+    random = new Random();
+  }
+
+  @Override
+  public long getRetryDelayMs(IOException e, int errorCount) {
+    if (e instanceof InvalidContentTypeException) {
+      return DONT_RETRY;
+    } else if (e instanceof InvalidResponseCodeException) {
+      InvalidResponseCodeException responseCodeException = (InvalidResponseCodeException) e;
+      int responseCode = responseCodeException.responseCode;
+      if (responseCode >= 400 && responseCode < 500 && responseCode != 408
+          && responseCode != 429) {
+        return DONT_RETRY;
+      }
+      long retryAfterMs = getRetryAfterMs(responseCodeException.headerFields);
+      return retryAfterMs != -1 ? Math.min(retryAfterMs, maxDelayMs)
+          : getBackoffDelayMs(errorCount);
+    } else if (e instanceof HttpDataSourceException) {
+      return errorCount == 1 ? 0 : getBackoffDelayMs(errorCount - 1);
+    }
+    return getBackoffDelayMs(errorCount);
+  }
+
+  private long getBackoffDelayMs(int backoffCount) {
+    long delayMs = Math.min((long) initialDelayMs << Math.min(backoffCount - 1, 30), maxDelayMs);
+    return delayMs - (long) (delayMs * jitterFactor * random.nextFloat());
+  }
+
+  private static long getRetryAfterMs(Map<String, List<String>> headerFields) {
+    if (headerFields == null) {
+      return -1;
+    }
+    for (Map.Entry<String, List<String>> header : headerFields.entrySet()) {
+      if (RETRY_AFTER_HEADER.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+          && !header.getValue().isEmpty()) {
+        try {
+          return Math.max(0, Long.parseLong(header.getValue().get(0).trim()) * 1000);
+        } catch (NumberFormatException e) {
+          // An HTTP date, which is not supported.
+          return -1;
+        }
+      }
+    }
+    return -1;
+  }
+
+}
@@ -40,7 +40,7 @@ public final class DefaultUriDataSource implements UriDataSource {
   private static final String SCHEME_CONTENT = "content";
 
   private final UriDataSource httpDataSource;
-
+  private final UriDataSource fileDataSource;
 
   /**
    * {@code null} if no data source is open. Otherwise, equal to {@link #fileDataSource} if the open
@@ -106,7 +106,7 @@ public final class DefaultUriDataSource implements UriDataSource {
   public DefaultUriDataSource(Context context, TransferListener listener,
                               UriDataSource httpDataSource) {
     this.httpDataSource = Assertions.checkNotNull(httpDataSource);
-
+    this.fileDataSource = new FileDataSource(listener);
   }
 
   @Override
@@ -118,7 +118,7 @@ public final class DefaultUriDataSource implements UriDataSource {
       if (dataSpec.uri.getPath().startsWith("/android_asset/")) {
         //dataSource = assetDataSource;
       } else {
-       // dataSource = fileDataSource;
+        dataSource = fileDataSource;
       }
     } else if (SCHEME_ASSET.equals(scheme)) {
      // dataSource = assetDataSource;
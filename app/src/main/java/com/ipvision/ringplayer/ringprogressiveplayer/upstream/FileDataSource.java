@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A local file {@link UriDataSource}.
+ * <p>
+ * Data is read through a {@link MappedByteBuffer} window onto the file, so that reads are plain
+ * memory copies rather than individual read system calls. The most recently mapped window is
+ * retained across {@link #close()}, so re-opening the same file at a different position (as
+ * happens when seeking) only repositions within the existing mapping when possible. A new window
+ * is mapped when a read falls outside the current one, or when the file has been modified.
+ * <p>
+ * A mapping is only released once its buffer is garbage collected, so windows are kept small to
+ * bound the address space held by windows that have been replaced. Mapping can also be disabled
+ * with {@link #MAPPED_WINDOW_SIZE_NONE}, for example for many small files that are each read once,
+ * in which case the file is read with read system calls.
+ */
+public final class FileDataSource implements UriDataSource {
+
+  /**
+   * Thrown when IOException is encountered during local file read operation.
+   */
+  public static class FileDataSourceException extends IOException {
+
+    public FileDataSourceException(IOException cause) {
+      super(cause);
+    }
+
+  }
+
+  /**
+   * The default maximum size of a single mapped window, in bytes.
+   */
+  public static final int DEFAULT_MAPPED_WINDOW_SIZE = 2 * 1024 * 1024;
+  /**
+   * A mapped window size that disables mapping, so that the file is read with read system calls.
+   */
+  public static final int MAPPED_WINDOW_SIZE_NONE = 0;
+
+  private final TransferListener listener;
+  private final int mappedWindowSize;
+
+  private RandomAccessFile file;
+  private String uriString;
+  private String path;
+  private long readPosition;
+  private long bytesRemaining;
+  private boolean opened;
+
+  private MappedByteBuffer window;
+  private String windowPath;
+  private long windowFileLength;
+  private long windowLastModified;
+  private long windowPosition;
+
+  /**
+   * Constructs a new {@link DataSource} that retrieves data from a file.
+   */
+  public FileDataSource() {
+    this(null);
+  }
+
+  /**
+   * Constructs a new {@link DataSource} that retrieves data from a file.
+   *
+   * @param listener An optional listener.
+   */
+  public FileDataSource(TransferListener listener) {
+    this(listener, DEFAULT_MAPPED_WINDOW_SIZE);
+  }
+
+  /**
+   * Constructs a new {@link DataSource} that retrieves data from a file.
+   *
+   * @param listener An optional listener.
+   * @param mappedWindowSize The maximum number of bytes of the file to map at any one time, or
+   *     {@link #MAPPED_WINDOW_SIZE_NONE} to read the file without mapping it.
+   */
+  public FileDataSource(TransferListener listener, int mappedWindowSize) {
+    this.listener = listener;
+    this.mappedWindowSize = mappedWindowSize;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws FileDataSourceException {
+    try {
+      uriString = dataSpec.uri.toString();
+      path = dataSpec.uri.getPath();
+      File fileInfo = new File(path);
+      if (!fileInfo.isFile()) {
+        throw new FileNotFoundException(path);
+      }
+      long fileLength = fileInfo.length();
+      long lastModified = fileInfo.lastModified();
+      if (window != null && (!path.equals(windowPath) || fileLength != windowFileLength
+          || lastModified != windowLastModified)) {
+        // The retained window belongs to a different file, or to an older version of this one.
+        window = null;
+      }
+      windowPath = path;
+      windowFileLength = fileLength;
+      windowLastModified = lastModified;
+      readPosition = dataSpec.position;
+      bytesRemaining = dataSpec.length == C.LENGTH_UNBOUNDED ? fileLength - dataSpec.position
+          : dataSpec.length;
+      if (bytesRemaining < 0 || dataSpec.position + bytesRemaining > fileLength) {
+        throw new EOFException();
+      }
+      if (mappedWindowSize == MAPPED_WINDOW_SIZE_NONE) {
+        file = new RandomAccessFile(path, "r");
+        file.seek(readPosition);
+      }
+    } catch (IOException e) {
+      throw new FileDataSourceException(e);
+    }
+
+    opened = true;
+    if (listener != null) {
+      listener.onTransferStart();
+    }
+
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws FileDataSourceException {
+    if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    } else if (mappedWindowSize == MAPPED_WINDOW_SIZE_NONE) {
+      int bytesRead;
+      try {
+        bytesRead = file.read(buffer, offset, (int) Math.min(bytesRemaining, readLength));
+      } catch (IOException e) {
+        throw new FileDataSourceException(e);
+      }
+
+      if (bytesRead > 0) {
+        readPosition += bytesRead;
+        bytesRemaining -= bytesRead;
+        if (listener != null) {
+          listener.onBytesTransferred(bytesRead);
+        }
+      }
+
+      return bytesRead;
+    } else {
+      if (window == null || readPosition < windowPosition
+          || readPosition >= windowPosition + window.capacity()) {
+        try {
+          mapWindow(readPosition);
+        } catch (IOException e) {
+          throw new FileDataSourceException(e);
+        }
+      }
+
+      int windowOffset = (int) (readPosition - windowPosition);
+      int bytesRead = (int) Math.min(Math.min(bytesRemaining, readLength),
+          window.capacity() - windowOffset);
+      window.position(windowOffset);
+      window.get(buffer, offset, bytesRead);
+
+      if (bytesRead > 0) {
+        readPosition += bytesRead;
+        bytesRemaining -= bytesRead;
+        if (listener != null) {
+          listener.onBytesTransferred(bytesRead);
+        }
+      }
+
+      return bytesRead;
+    }
+  }
+
+  @Override
+  public String getUri() {
+    return uriString;
+  }
+
+  @Override
+  public void close() throws FileDataSourceException {
+    uriString = null;
+    try {
+      if (file != null) {
+        file.close();
+      }
+    } catch (IOException e) {
+      throw new FileDataSourceException(e);
+    } finally {
+      file = null;
+      if (opened) {
+        opened = false;
+        if (listener != null) {
+          listener.onTransferEnd();
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps the window of the file that contains the specified position, opening the file first if
+   * necessary. Windows are aligned to multiples of the window size, so that nearby seeks in either
+   * direction are likely to land in the window that is already mapped.
+   *
+   * @param position The position in the file that the window should contain.
+   * @throws IOException If an error occurs mapping the file.
+   */
+  private void mapWindow(long position) throws IOException {
+    if (file == null) {
+      file = new RandomAccessFile(path, "r");
+    }
+    window = null;
+    windowPosition = (position / mappedWindowSize) * mappedWindowSize;
+    long windowSize = Math.min(mappedWindowSize, windowFileLength - windowPosition);
+    window = file.getChannel().map(FileChannel.MapMode.READ_ONLY, windowPosition, windowSize);
+  }
+
+}
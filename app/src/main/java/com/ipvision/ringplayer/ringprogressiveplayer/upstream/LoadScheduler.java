@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import android.os.SystemClock;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the loads of several {@link Loader}s, so that only a bounded number of them load at
+ * any one time, in order of priority.
+ * <p>
+ * A load that is started while all slots are in use waits in a queue for its priority, without
+ * occupying a thread. When a slot becomes free it is given to the waiting load with the highest
+ * priority. Running loads are preempted cooperatively: a {@link Loader.Loadable} that calls
+ * {@link #yieldIfPreempted()} while a load of higher priority is waiting gives up its slot, and
+ * pauses until a slot is given back to it.
+ * <p>
+ * A load that waits for something other than its data (e.g. for buffer space) should bracket the
+ * wait with {@link #beginBlocking()} and {@link #endBlocking()}. If the wait lasts longer than
+ * {@link #BLOCKED_SLOT_RECLAIM_MS} while other loads are waiting, its slot is given to one of them,
+ * and the load waits for a slot again once it stops blocking.
+ * <p>
+ * A paused load keeps the thread it runs on, so loads run on a bounded pool of threads, and a load
+ * that has not started only starts when a thread is available for it. Loads that have started are
+ * resumed in preference to it.
+ */
+public final class LoadScheduler {
+
+  /**
+   * The priority of loads for media that is being played.
+   */
+  public static final int PRIORITY_PLAYBACK = 0;
+  /**
+   * The priority of loads that refill a buffer after a seek.
+   */
+  public static final int PRIORITY_SEEK = 1;
+  /**
+   * The priority of loads for media that is not being played.
+   */
+  public static final int PRIORITY_PRELOAD = 2;
+
+  /**
+   * The default maximum number of loads that may run at once.
+   */
+  public static final int DEFAULT_MAX_ACTIVE_LOADS = 2;
+  /**
+   * The duration for which a load must have been blocked before its slot may be given to a waiting
+   * load, in milliseconds.
+   */
+  public static final int BLOCKED_SLOT_RECLAIM_MS = 100;
+
+  private static final int PRIORITY_COUNT = 3;
+  private static final long THREAD_KEEP_ALIVE_MS = 10000;
+
+  private static final int STATE_QUEUED = 0;
+  private static final int STATE_RUNNING = 1;
+  private static final int STATE_PAUSED = 2;
+  private static final int STATE_BLOCKED = 3;
+  private static final int STATE_FINISHED = 4;
+
+  private static final int BLOCKING_NONE = 0;
+  private static final int BLOCKING = 1;
+  private static final int BLOCKING_RECLAIMED = 2;
+
+  private static final ThreadLocal<Ticket> CURRENT_TICKET = new ThreadLocal<>();
+
+  private static LoadScheduler defaultInstance;
+
+  private final int maxActiveLoads;
+  private final int maxThreadCount;
+  private final ThreadPoolExecutor executorService;
+  private final ArrayDeque<Ticket>[] waitingTickets;
+  private final ArrayList<Ticket> runningTickets;
+  private final Runnable reclaimRunnable;
+
+  // The highest priority of the waiting loads that can be given a slot, or PRIORITY_COUNT if there
+  // are none. Written with the scheduler locked, and read without a lock by running loads.
+  private volatile int preemptingPriority;
+
+  private ScheduledExecutorService reclaimExecutorService;
+  private boolean reclaimPending;
+  private int activeLoadCount;
+  private int startedTaskCount;
+
+  /**
+   * Returns the process-wide instance, which is shared by all players.
+   *
+   * @return The default instance.
+   */
+  public static synchronized LoadScheduler getDefault() {
+    if (defaultInstance == null) {
+      defaultInstance = new LoadScheduler(DEFAULT_MAX_ACTIVE_LOADS);
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * Gives up the slot of the load running on the calling thread if a load of higher priority is
+   * waiting for one, and blocks until a slot is given back to it. Does nothing if the calling
+   * thread is not running a load started by a {@link LoadScheduler}.
+   * <p>
+   * Should be called periodically by long running {@link Loader.Loadable}s. Only takes the
+   * scheduler's lock if a load of higher priority is waiting.
+   *
+   * @throws InterruptedException If the thread is interrupted while paused.
+   */
+  public static void yieldIfPreempted() throws InterruptedException {
+    Ticket ticket = CURRENT_TICKET.get();
+    if (ticket != null && ticket.scheduler.preemptingPriority < ticket.priority) {
+      ticket.scheduler.maybePause(ticket);
+    }
+  }
+
+  /**
+   * Marks the load running on the calling thread as blocked, so that its slot may be given to a
+   * waiting load if it remains blocked for {@link #BLOCKED_SLOT_RECLAIM_MS}. Does nothing if the
+   * calling thread is not running a load started by a {@link LoadScheduler}.
+   * <p>
+   * Does not take a lock, and so may be called before every potentially blocking wait.
+   */
+  public static void beginBlocking() {
+    Ticket ticket = CURRENT_TICKET.get();
+    if (ticket != null) {
+      ticket.blockingSinceMs = SystemClock.elapsedRealtime();
+      ticket.blockingState.set(BLOCKING);
+    }
+  }
+
+  /**
+   * Marks the load running on the calling thread as no longer blocked. If its slot was given to
+   * another load while it was blocked, blocks until a slot is given back to it.
+   * <p>
+   * The load's blocking state is swapped atomically, so that the slot cannot be given away after
+   * the load has resumed. The scheduler's lock is only taken if the slot was given away.
+   *
+   * @throws InterruptedException If the thread is interrupted while waiting for a slot.
+   */
+  public static void endBlocking() throws InterruptedException {
+    Ticket ticket = CURRENT_TICKET.get();
+    if (ticket != null && ticket.blockingState.getAndSet(BLOCKING_NONE) == BLOCKING_RECLAIMED) {
+      ticket.scheduler.onReclaimedBlockingEnded(ticket);
+    }
+  }
+
+  /**
+   * Creates a scheduler whose loads run on up to twice as many threads as there are slots.
+   *
+   * @param maxActiveLoads The maximum number of loads that may run at once.
+   */
+  public LoadScheduler(int maxActiveLoads) {
+    this(maxActiveLoads, 2 * maxActiveLoads);
+  }
+
+  /**
+   * @param maxActiveLoads The maximum number of loads that may run at once.
+   * @param maxThreadCount The maximum number of threads on which loads run, including the threads
+   *     of paused loads. Must be at least {@code maxActiveLoads}.
+   */
+  @SuppressWarnings("unchecked")
+  public LoadScheduler(int maxActiveLoads, int maxThreadCount) {
+    Assertions.checkArgument(maxActiveLoads > 0);
+    Assertions.checkArgument(maxThreadCount >= maxActiveLoads);
+    this.maxActiveLoads = maxActiveLoads;
+    this.maxThreadCount = maxThreadCount;
+    executorService = new ThreadPoolExecutor(maxThreadCount, maxThreadCount, THREAD_KEEP_ALIVE_MS,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "LoadScheduler");
+          }
+        });
+    executorService.allowCoreThreadTimeOut(true);
+    preemptingPriority = PRIORITY_COUNT;
+    waitingTickets = new ArrayDeque[PRIORITY_COUNT];
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      waitingTickets[i] = new ArrayDeque<>();
+    }
+    runningTickets = new ArrayList<>();
+    reclaimRunnable = new Runnable() {
+      @Override
+      public void run() {
+        reclaimBlockedSlots();
+      }
+    };
+  }
+
+  /**
+   * Returns the number of loads of the specified priority that are waiting for a slot, either
+   * because they have not started or because they have been preempted.
+   *
+   * @param priority The priority.
+   * @return The number of waiting loads.
+   */
+  public synchronized int getQueueDepth(int priority) {
+    return waitingTickets[priority].size();
+  }
+
+  /**
+   * Returns the number of loads that are currently running.
+   */
+  public synchronized int getActiveLoadCount() {
+    return activeLoadCount;
+  }
+
+  /**
+   * Submits a task, which is run on a pool thread once it is given a slot.
+   *
+   * @param task The task.
+   * @param priority The priority of the task.
+   * @return A ticket identifying the task.
+   */
+  /* package */ synchronized Ticket submit(Runnable task, int priority) {
+    checkPriority(priority);
+    Ticket ticket = new Ticket(this, task, priority);
+    waitingTickets[priority].addLast(ticket);
+    dispatch();
+    return ticket;
+  }
+
+  /**
+   * Changes the priority of a task.
+   *
+   * @param ticket The ticket identifying the task.
+   * @param priority The new priority.
+   */
+  /* package */ synchronized void setPriority(Ticket ticket, int priority) {
+    checkPriority(priority);
+    if (ticket.priority == priority) {
+      return;
+    }
+    if (waitingTickets[ticket.priority].remove(ticket)) {
+      waitingTickets[priority].addLast(ticket);
+    }
+    ticket.priority = priority;
+    updatePreemptingPriority();
+  }
+
+  /**
+   * Runs a task immediately if it is still waiting to start, without giving it a slot, so that it
+   * can observe that it has been canceled.
+   *
+   * @param ticket The ticket identifying the task.
+   */
+  /* package */ synchronized void cancel(Ticket ticket) {
+    if (ticket.state == STATE_QUEUED && waitingTickets[ticket.priority].remove(ticket)) {
+      ticket.state = STATE_FINISHED;
+      updatePreemptingPriority();
+      executorService.execute(ticket.task);
+    }
+  }
+
+  private synchronized void maybePause(Ticket ticket) throws InterruptedException {
+    if (ticket.state != STATE_RUNNING || activeLoadCount < maxActiveLoads
+        || !hasWaitingTicket(ticket.priority)) {
+      return;
+    }
+    ticket.state = STATE_PAUSED;
+    activeLoadCount--;
+    runningTickets.remove(ticket);
+    waitingTickets[ticket.priority].addFirst(ticket);
+    dispatch();
+    waitWhilePaused(ticket);
+  }
+
+  private synchronized void onReclaimedBlockingEnded(Ticket ticket) throws InterruptedException {
+    // The slot was given to another load while this one was blocked.
+    ticket.state = STATE_PAUSED;
+    waitingTickets[ticket.priority].addFirst(ticket);
+    dispatch();
+    waitWhilePaused(ticket);
+  }
+
+  private void waitWhilePaused(Ticket ticket) throws InterruptedException {
+    try {
+      while (ticket.state == STATE_PAUSED) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      if (ticket.state == STATE_PAUSED) {
+        waitingTickets[ticket.priority].remove(ticket);
+        ticket.state = STATE_FINISHED;
+        updatePreemptingPriority();
+      }
+      throw e;
+    }
+  }
+
+  private synchronized void onTicketFinished(Ticket ticket) {
+    if (ticket.state == STATE_RUNNING) {
+      activeLoadCount--;
+      runningTickets.remove(ticket);
+    }
+    ticket.state = STATE_FINISHED;
+    // The thread is free for a load that has not started.
+    startedTaskCount--;
+    dispatch();
+  }
+
+  /**
+   * Gives the slots of loads that have been blocked for at least {@link #BLOCKED_SLOT_RECLAIM_MS}
+   * to waiting loads.
+   */
+  private synchronized void reclaimBlockedSlots() {
+    reclaimPending = false;
+    long reclaimTimeMs = SystemClock.elapsedRealtime() - BLOCKED_SLOT_RECLAIM_MS;
+    for (int i = runningTickets.size() - 1; i >= 0 && hasWaitingTicket(PRIORITY_COUNT); i--) {
+      Ticket ticket = runningTickets.get(i);
+      if (ticket.blockingSinceMs <= reclaimTimeMs
+          && ticket.blockingState.compareAndSet(BLOCKING, BLOCKING_RECLAIMED)) {
+        runningTickets.remove(i);
+        activeLoadCount--;
+        ticket.state = STATE_BLOCKED;
+        dispatch();
+      }
+    }
+    maybeScheduleReclaim();
+  }
+
+  /**
+   * Schedules a check for blocked loads whose slots can be given to waiting loads, if loads are
+   * waiting and all slots are in use.
+   */
+  private void maybeScheduleReclaim() {
+    if (reclaimPending || activeLoadCount < maxActiveLoads || !hasWaitingTicket(PRIORITY_COUNT)) {
+      return;
+    }
+    if (reclaimExecutorService == null) {
+      reclaimExecutorService = Util.newSingleThreadScheduledExecutor("LoadScheduler:Reclaim");
+    }
+    reclaimPending = true;
+    reclaimExecutorService.schedule(reclaimRunnable, BLOCKED_SLOT_RECLAIM_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Gives free slots to the waiting tickets with the highest priority.
+   */
+  private void dispatch() {
+    while (activeLoadCount < maxActiveLoads) {
+      Ticket ticket = pollHighestPriorityTicket();
+      if (ticket == null) {
+        break;
+      }
+      activeLoadCount++;
+      runningTickets.add(ticket);
+      if (ticket.state == STATE_PAUSED) {
+        ticket.state = STATE_RUNNING;
+        notifyAll();
+      } else {
+        ticket.state = STATE_RUNNING;
+        startedTaskCount++;
+        executorService.execute(ticket);
+      }
+    }
+    updatePreemptingPriority();
+    maybeScheduleReclaim();
+  }
+
+  private void updatePreemptingPriority() {
+    preemptingPriority = getHighestWaitingPriority();
+  }
+
+  private Ticket pollHighestPriorityTicket() {
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      Iterator<Ticket> iterator = waitingTickets[i].iterator();
+      while (iterator.hasNext()) {
+        Ticket ticket = iterator.next();
+        if (canDispatch(ticket)) {
+          iterator.remove();
+          return ticket;
+        }
+      }
+    }
+    return null;
+  }
+
+  private boolean hasWaitingTicket(int higherThanPriority) {
+    return getHighestWaitingPriority() < higherThanPriority;
+  }
+
+  /**
+   * Returns the highest priority of the waiting loads that can be given a slot, or
+   * {@link #PRIORITY_COUNT} if there are none.
+   */
+  private int getHighestWaitingPriority() {
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      for (Ticket ticket : waitingTickets[i]) {
+        if (canDispatch(ticket)) {
+          return i;
+        }
+      }
+    }
+    return PRIORITY_COUNT;
+  }
+
+  /**
+   * Returns whether a waiting ticket can be given a slot. A paused load already has a thread, but
+   * a load that has not started needs one of its own.
+   */
+  private boolean canDispatch(Ticket ticket) {
+    return ticket.state == STATE_PAUSED || startedTaskCount < maxThreadCount;
+  }
+
+  private static void checkPriority(int priority) {
+    Assertions.checkArgument(priority >= 0 && priority < PRIORITY_COUNT);
+  }
+
+  /**
+   * Identifies a task submitted to a {@link LoadScheduler}.
+   */
+  /* package */ static final class Ticket implements Runnable {
+
+    private final LoadScheduler scheduler;
+    private final Runnable task;
+
+    // Swapped atomically by the thread running the task, and by the scheduler to reclaim the slot.
+    private final AtomicInteger blockingState;
+    // Set by the thread running the task without a lock.
+    private volatile long blockingSinceMs;
+    // Written with the scheduler locked. The priority is also read by the thread running the task.
+    private volatile int priority;
+    private int state;
+
+    private Ticket(LoadScheduler scheduler, Runnable task, int priority) {
+      this.scheduler = scheduler;
+      this.task = task;
+      blockingState = new AtomicInteger(BLOCKING_NONE);
+      this.priority = priority;
+      state = STATE_QUEUED;
+    }
+
+    @Override
+    public void run() {
+      CURRENT_TICKET.set(this);
+      try {
+        task.run();
+      } finally {
+        CURRENT_TICKET.remove();
+        scheduler.onTicketFinished(this);
+      }
+    }
+
+  }
+
+}
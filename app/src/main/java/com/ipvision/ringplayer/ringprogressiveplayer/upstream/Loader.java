@@ -30,6 +30,10 @@ import java.util.concurrent.ExecutorService;
 
 /**
  * Manages the background loading of {@link Loadable}s.
+ * <p>
+ * By default each loader loads on a thread of its own. Loaders may instead share a
+ * {@link LoadScheduler}, which bounds the number of loads running at once and runs them in order
+ * of priority.
  */
 public final class Loader {
 
@@ -104,15 +108,28 @@ public final class Loader {
   private static final int MSG_FATAL_ERROR = 2;
 
   private final ExecutorService downloadExecutorService;
+  private final LoadScheduler loadScheduler;
 
   private LoadTask currentTask;
   private boolean loading;
+  private int priority;
 
   /**
    * @param threadName A name for the loader's thread.
    */
   public Loader(String threadName) {
     this.downloadExecutorService = Util.newSingleThreadExecutor(threadName);
+    this.loadScheduler = null;
+  }
+
+  /**
+   * @param loadScheduler The scheduler that runs the loads.
+   * @param priority The initial priority of the loads, as defined by {@link LoadScheduler}.
+   */
+  public Loader(LoadScheduler loadScheduler, int priority) {
+    this.downloadExecutorService = null;
+    this.loadScheduler = loadScheduler;
+    this.priority = priority;
   }
 
   /**
@@ -143,7 +160,27 @@ public final class Loader {
     Assertions.checkState(!loading);
     loading = true;
     currentTask = new LoadTask(looper, loadable, callback);
-    downloadExecutorService.submit(currentTask);
+    if (loadScheduler != null) {
+      currentTask.ticket = loadScheduler.submit(currentTask, priority);
+    } else {
+      downloadExecutorService.submit(currentTask);
+    }
+  }
+
+  /**
+   * Sets the priority of the current and subsequent loads. Does nothing if the loader does not
+   * use a {@link LoadScheduler}.
+   *
+   * @param priority The priority, as defined by {@link LoadScheduler}.
+   */
+  public void setPriority(int priority) {
+    if (loadScheduler == null || this.priority == priority) {
+      return;
+    }
+    this.priority = priority;
+    if (currentTask != null) {
+      loadScheduler.setPriority(currentTask.ticket, priority);
+    }
   }
 
   /**
@@ -174,7 +211,9 @@ public final class Loader {
     if (loading) {
       cancelLoading();
     }
-    downloadExecutorService.shutdown();
+    if (downloadExecutorService != null) {
+      downloadExecutorService.shutdown();
+    }
   }
 
   @SuppressLint("HandlerLeak")
@@ -186,6 +225,7 @@ public final class Loader {
     private final Loader.Callback callback;
 
     private volatile Thread executorThread;
+    private LoadScheduler.Ticket ticket;
 
     public LoadTask(Looper looper, Loadable loadable, Loader.Callback callback) {
       super(looper);
@@ -197,6 +237,9 @@ public final class Loader {
       loadable.cancelLoad();
       if (executorThread != null) {
         executorThread.interrupt();
+      } else if (ticket != null) {
+        // The load may still be waiting for the scheduler to give it a slot.
+        loadScheduler.cancel(ticket);
       }
     }
 
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DataSource} that reads ahead from an upstream {@link DataSource} on a background thread,
+ * so that waiting for upstream data overlaps with the caller's processing of data already read.
+ * <p>
+ * Data is buffered in a bounded ring of {@link Allocation}s obtained from an {@link Allocator}.
+ * The background thread stops reading ahead when every buffer in the ring is full, and resumes as
+ * soon as the caller has consumed a buffer.
+ * <p>
+ * The upstream source is opened on the calling thread, so errors opening it are thrown directly
+ * from {@link #open(DataSpec)}. Errors reading from it are thrown from {@link #read} once all data
+ * read before the error has been consumed. Since the upstream source is not thread-safe, it is only
+ * closed once the background thread has stopped: {@link #close()} interrupts the background
+ * thread, so that an upstream read that waits interruptibly (e.g. for a segment being downloaded,
+ * or for a cache lock) is abandoned, and waits for it to stop before closing the upstream source.
+ */
+public final class ReadAheadDataSource implements DataSource {
+
+  /**
+   * The default number of buffers in the ring.
+   */
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+
+  private static final long THREAD_KEEP_ALIVE_MS = 10000;
+
+  private final DataSource upstream;
+  private final Allocator allocator;
+  private final int allocationLength;
+  private final Allocation[] buffers;
+  private final int[] bufferLengths;
+  private final ThreadPoolExecutor executor;
+  private final Runnable readAheadTask;
+
+  // Guarded by this.
+  private int usedBufferCount;
+  private int readIndex;
+  private int readOffset;
+  private int writeIndex;
+  private boolean writeBufferAllocated;
+  private boolean endOfInput;
+  private IOException error;
+  private boolean closed;
+  private boolean readingAhead;
+  private Thread readAheadThread;
+
+  /**
+   * @param upstream The upstream {@link DataSource}.
+   * @param allocator The allocator from which to obtain buffers.
+   */
+  public ReadAheadDataSource(DataSource upstream, Allocator allocator) {
+    this(upstream, allocator, DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * @param upstream The upstream {@link DataSource}.
+   * @param allocator The allocator from which to obtain buffers.
+   * @param bufferCount The number of buffers in the ring, each of which holds
+   *     {@link Allocator#getIndividualAllocationLength()} bytes. This bounds how far the source
+   *     reads ahead of the caller.
+   */
+  public ReadAheadDataSource(DataSource upstream, Allocator allocator, int bufferCount) {
+    Assertions.checkArgument(bufferCount > 0);
+    this.upstream = Assertions.checkNotNull(upstream);
+    this.allocator = Assertions.checkNotNull(allocator);
+    allocationLength = allocator.getIndividualAllocationLength();
+    buffers = new Allocation[bufferCount];
+    bufferLengths = new int[bufferCount];
+    executor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "ReadAheadDataSource");
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    readAheadTask = new Runnable() {
+      @Override
+      public void run() {
+        readAhead();
+      }
+    };
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    long length = upstream.open(dataSpec);
+    synchronized (this) {
+      Assertions.checkState(!readingAhead);
+      usedBufferCount = 0;
+      readIndex = 0;
+      readOffset = 0;
+      writeIndex = 0;
+      writeBufferAllocated = false;
+      endOfInput = false;
+      error = null;
+      closed = false;
+      readingAhead = true;
+    }
+    executor.execute(readAheadTask);
+    return length;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    Allocation allocation;
+    int bytesRead;
+    synchronized (this) {
+      try {
+        while (getBytesAvailable() == 0 && !endOfInput && error == null) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      int bytesAvailable = getBytesAvailable();
+      if (bytesAvailable == 0) {
+        if (error != null) {
+          throw error;
+        }
+        return C.RESULT_END_OF_INPUT;
+      }
+      allocation = buffers[readIndex];
+      bytesRead = Math.min(readLength, bytesAvailable);
+    }
+
+    // Data that has been made available is never modified by the background thread, so can be
+    // copied unlocked.
+    System.arraycopy(allocation.data, allocation.translateOffset(readOffset), buffer, offset,
+        bytesRead);
+
+    synchronized (this) {
+      readOffset += bytesRead;
+      if (readOffset == allocationLength) {
+        // The buffer has been fully consumed. Return it so that the background thread can refill.
+        allocator.release(buffers[readIndex]);
+        buffers[readIndex] = null;
+        readIndex = (readIndex + 1) % buffers.length;
+        readOffset = 0;
+        usedBufferCount--;
+        notifyAll();
+      }
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    boolean interrupted = false;
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+      if (readAheadThread != null) {
+        readAheadThread.interrupt();
+      }
+      while (readingAhead) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      for (int i = 0; i < buffers.length; i++) {
+        if (buffers[i] != null) {
+          allocator.release(buffers[i]);
+          buffers[i] = null;
+        }
+      }
+      usedBufferCount = 0;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    // The background thread has stopped, so upstream is only used by this thread from here on.
+    upstream.close();
+  }
+
+  /**
+   * Returns the number of bytes that can be read from the buffer at {@link #readIndex}.
+   */
+  private int getBytesAvailable() {
+    return usedBufferCount == 0 ? 0 : bufferLengths[readIndex] - readOffset;
+  }
+
+  /**
+   * Reads from upstream into the ring until the end of input is reached, an error occurs or the
+   * source is closed.
+   */
+  private void readAhead() {
+    synchronized (this) {
+      readAheadThread = Thread.currentThread();
+    }
+    try {
+      while (true) {
+        Allocation allocation;
+        int bufferLength;
+        synchronized (this) {
+          if (!writeBufferAllocated) {
+            while (!closed && usedBufferCount == buffers.length) {
+              // Woken by read() once a buffer has been consumed, or by close().
+              wait();
+            }
+            if (closed) {
+              return;
+            }
+            buffers[writeIndex] = allocator.allocate();
+            bufferLengths[writeIndex] = 0;
+            writeBufferAllocated = true;
+            usedBufferCount++;
+          } else if (closed) {
+            return;
+          }
+          allocation = buffers[writeIndex];
+          bufferLength = bufferLengths[writeIndex];
+        }
+
+        int bytesRead;
+        try {
+          bytesRead = upstream.read(allocation.data, allocation.translateOffset(bufferLength),
+              allocationLength - bufferLength);
+        } catch (IOException e) {
+          synchronized (this) {
+            error = e;
+            notifyAll();
+          }
+          return;
+        }
+
+        synchronized (this) {
+          if (bytesRead == C.RESULT_END_OF_INPUT) {
+            endOfInput = true;
+            notifyAll();
+            return;
+          }
+          bufferLengths[writeIndex] += bytesRead;
+          if (bufferLengths[writeIndex] == allocationLength) {
+            writeIndex = (writeIndex + 1) % buffers.length;
+            writeBufferAllocated = false;
+          }
+          notifyAll();
+        }
+      }
+    } catch (InterruptedException e) {
+      synchronized (this) {
+        error = new InterruptedIOException();
+        notifyAll();
+      }
+    } finally {
+      synchronized (this) {
+        readAheadThread = null;
+        // Clear an interrupt from close() that arrived after the last interruptible wait, so that
+        // it doesn't leak into the next task run by the pooled thread.
+        Thread.interrupted();
+        readingAhead = false;
+        notifyAll();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import java.io.IOException;
+
+/**
+ * Decides whether and when a failed load should be retried.
+ */
+public interface RetryPolicy {
+
+  /**
+   * Returned by {@link #getRetryDelayMs(IOException, int)} if the load should not be retried.
+   */
+  long DONT_RETRY = -1;
+
+  /**
+   * Returns the delay before a failed load is retried.
+   *
+   * @param e The error that caused the load to fail.
+   * @param errorCount The number of consecutive errors for which the load has not made progress
+   *     since the previous error, including this one.
+   * @return The delay before retrying in milliseconds, or {@link #DONT_RETRY} if the error is not
+   *     recoverable by retrying.
+   */
+  long getRetryDelayMs(IOException e, int errorCount);
+
+}
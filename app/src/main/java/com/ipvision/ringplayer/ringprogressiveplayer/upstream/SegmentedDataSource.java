@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link UriDataSource} that downloads a range over several concurrent HTTP range requests.
+ * <p>
+ * The first segment of each opened range is read directly from a connection on the calling thread,
+ * so that the first bytes are available as quickly as they would be from a single connection.
+ * Meanwhile the segments that follow are downloaded on background threads into memory obtained
+ * from an {@link Allocator}, and are handed to the caller in order as they arrive. At most one
+ * segment more than the number of concurrent connections is held in memory at any time.
+ * <p>
+ * If a {@link BandwidthMeter} is provided, the number of concurrent connections is adapted to the
+ * measured throughput. Each time a round of segments completes the estimate is compared with the
+ * best estimate seen so far: connections are added for as long as doing so improves throughput,
+ * and the count is reset to the best observed value once it stops helping. Probing restarts if the
+ * throughput later drops significantly.
+ * <p>
+ * Requests that fit in a single segment, requests with a body or that allow gzip, and servers that
+ * don't report the total content length in a {@code Content-Range} header are served over a single
+ * connection.
+ */
+public final class SegmentedDataSource implements UriDataSource {
+
+  /**
+   * Creates the {@link HttpDataSource}s used for each connection.
+   */
+  public interface HttpDataSourceFactory {
+
+    /**
+     * Creates a new {@link HttpDataSource}.
+     *
+     * @return The created source.
+     */
+    HttpDataSource createHttpDataSource();
+
+  }
+
+  /**
+   * The default size of each segment, in bytes.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+  /**
+   * The default maximum number of concurrent connections.
+   */
+  public static final int DEFAULT_MAX_CONNECTION_COUNT = 4;
+  /**
+   * The default number of concurrent connections used before any throughput has been measured.
+   */
+  public static final int DEFAULT_INITIAL_CONNECTION_COUNT = 2;
+
+  private static final Pattern CONTENT_RANGE_HEADER =
+      Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
+  private static final float MIN_PROBE_IMPROVEMENT = 1.1f;
+  private static final float MAX_SETTLED_DEGRADATION = 0.75f;
+  private static final long WORKER_KEEP_ALIVE_MS = 10000;
+
+  private final HttpDataSourceFactory dataSourceFactory;
+  private final Allocator allocator;
+  private final BandwidthMeter bandwidthMeter;
+  private final int segmentSize;
+  private final int maxConnectionCount;
+  private final ThreadPoolExecutor executor;
+  private final ArrayDeque<HttpDataSource> idleSources;
+  private final ArrayDeque<Segment> segments;
+
+  // Accessed only on the reading thread.
+  private DataSpec dataSpec;
+  private String uriString;
+  private HttpDataSource primarySource;
+  private boolean passthrough;
+  private long primaryBytesRemaining;
+  private long readPosition;
+
+  // Guarded by this.
+  private long endPosition;
+  private long nextSegmentPosition;
+  private int activeLoadCount;
+  private int targetConnectionCount;
+  private int segmentsLoadedSinceAdjustment;
+  private boolean probing;
+  private long bestBitrate;
+  private int bestConnectionCount;
+
+  /**
+   * @param dataSourceFactory Creates the sources used for each connection.
+   * @param allocator The allocator from which to obtain memory for downloaded segments.
+   * @param bandwidthMeter An optional meter used to adapt the number of concurrent connections.
+   *     The sources created by {@code dataSourceFactory} should report their transfers to it.
+   */
+  public SegmentedDataSource(HttpDataSourceFactory dataSourceFactory, Allocator allocator,
+      BandwidthMeter bandwidthMeter) {
+    this(dataSourceFactory, allocator, bandwidthMeter, DEFAULT_SEGMENT_SIZE,
+        DEFAULT_MAX_CONNECTION_COUNT);
+  }
+
+  /**
+   * @param dataSourceFactory Creates the sources used for each connection.
+   * @param allocator The allocator from which to obtain memory for downloaded segments.
+   * @param bandwidthMeter An optional meter used to adapt the number of concurrent connections.
+   *     The sources created by {@code dataSourceFactory} should report their transfers to it.
+   * @param segmentSize The size of each segment, in bytes.
+   * @param maxConnectionCount The maximum number of concurrent connections.
+   */
+  public SegmentedDataSource(HttpDataSourceFactory dataSourceFactory, Allocator allocator,
+      BandwidthMeter bandwidthMeter, int segmentSize, int maxConnectionCount) {
+    Assertions.checkArgument(segmentSize > 0);
+    Assertions.checkArgument(maxConnectionCount > 0);
+    this.dataSourceFactory = Assertions.checkNotNull(dataSourceFactory);
+    this.allocator = Assertions.checkNotNull(allocator);
+    this.bandwidthMeter = bandwidthMeter;
+    this.segmentSize = segmentSize;
+    this.maxConnectionCount = maxConnectionCount;
+    executor = new ThreadPoolExecutor(maxConnectionCount, maxConnectionCount, WORKER_KEEP_ALIVE_MS,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, "SegmentedDataSource");
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    idleSources = new ArrayDeque<>();
+    segments = new ArrayDeque<>();
+    targetConnectionCount = Math.min(DEFAULT_INITIAL_CONNECTION_COUNT, maxConnectionCount);
+    bestBitrate = BandwidthMeter.NO_ESTIMATE;
+    probing = true;
+  }
+
+  /**
+   * Returns the number of concurrent connections currently used to download segments.
+   */
+  public synchronized int getConnectionCount() {
+    return targetConnectionCount;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    this.dataSpec = dataSpec;
+    readPosition = dataSpec.position;
+    primarySource = obtainSource();
+    if (dataSpec.postBody != null || (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0
+        || (dataSpec.length != C.LENGTH_UNBOUNDED && dataSpec.length <= segmentSize)) {
+      return openPassthrough();
+    }
+
+    primarySource.open(new DataSpec(dataSpec.uri, dataSpec.position, segmentSize, dataSpec.key,
+        dataSpec.flags));
+    long contentLength = getContentLength(primarySource.getResponseHeaders(), dataSpec.position);
+    if (contentLength == C.LENGTH_UNBOUNDED) {
+      // The server didn't honor the range request, or didn't tell us the total length.
+      primarySource.close();
+      return openPassthrough();
+    }
+
+    uriString = primarySource.getUri();
+    long rangeEndPosition = dataSpec.length == C.LENGTH_UNBOUNDED ? contentLength
+        : Math.min(contentLength, dataSpec.position + dataSpec.length);
+    primaryBytesRemaining = Math.min(segmentSize, rangeEndPosition - dataSpec.position);
+    synchronized (this) {
+      endPosition = rangeEndPosition;
+      nextSegmentPosition = dataSpec.position + primaryBytesRemaining;
+      maybeStartSegmentLoads();
+    }
+    return rangeEndPosition - dataSpec.position;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (passthrough) {
+      return primarySource.read(buffer, offset, readLength);
+    }
+    if (primarySource != null) {
+      return readPrimary(buffer, offset, readLength);
+    }
+
+    Segment segment;
+    int bytesAvailable;
+    synchronized (this) {
+      if (readPosition == endPosition) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      try {
+        segment = segments.peekFirst();
+        while (segment == null) {
+          // The next segment hasn't been started yet, e.g. because all connections were busy
+          // with loads abandoned by a recent close. Start it, or wait for a connection to free up.
+          maybeStartSegmentLoads();
+          segment = segments.peekFirst();
+          if (segment == null) {
+            wait();
+            segment = segments.peekFirst();
+          }
+        }
+        Assertions.checkState(segment.position + segment.bytesRead == readPosition);
+        while (segment.bytesLoaded == segment.bytesRead && segment.error == null) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      if (segment.bytesLoaded == segment.bytesRead) {
+        throw segment.error;
+      }
+      bytesAvailable = segment.bytesLoaded - segment.bytesRead;
+    }
+
+    // Data up to bytesLoaded is never modified by the loading thread, so can be copied unlocked.
+    int allocationLength = allocator.getIndividualAllocationLength();
+    Allocation allocation = segment.allocations[segment.bytesRead / allocationLength];
+    int allocationOffset = segment.bytesRead % allocationLength;
+    int bytesRead = Math.min(Math.min(readLength, bytesAvailable),
+        allocationLength - allocationOffset);
+    System.arraycopy(allocation.data, allocation.translateOffset(allocationOffset), buffer, offset,
+        bytesRead);
+    segment.bytesRead += bytesRead;
+    readPosition += bytesRead;
+
+    if (segment.bytesRead == segment.length) {
+      synchronized (this) {
+        segments.removeFirst();
+        releaseAllocations(segment);
+        maybeStartSegmentLoads();
+      }
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public String getUri() {
+    return uriString;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      for (Segment segment : segments) {
+        segment.abandoned = true;
+        if (segment.loading) {
+          // Free the load's connection slot for the next range straight away. The load stops at
+          // its next read, and releases its allocations itself.
+          activeLoadCount--;
+        } else {
+          releaseAllocations(segment);
+        }
+      }
+      segments.clear();
+      endPosition = 0;
+      nextSegmentPosition = 0;
+    }
+    uriString = null;
+    passthrough = false;
+    if (primarySource != null) {
+      try {
+        primarySource.close();
+      } finally {
+        recycleSource(primarySource);
+        primarySource = null;
+      }
+    }
+  }
+
+  private long openPassthrough() throws IOException {
+    passthrough = true;
+    long length = primarySource.open(dataSpec);
+    uriString = primarySource.getUri();
+    return length;
+  }
+
+  private int readPrimary(byte[] buffer, int offset, int readLength) throws IOException {
+    int bytesRead = primarySource.read(buffer, offset,
+        (int) Math.min(readLength, primaryBytesRemaining));
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      throw new EOFException();
+    }
+    primaryBytesRemaining -= bytesRead;
+    readPosition += bytesRead;
+    if (primaryBytesRemaining == 0) {
+      // The remainder of the range is read from the segments being loaded in the background.
+      try {
+        primarySource.close();
+      } finally {
+        recycleSource(primarySource);
+        primarySource = null;
+      }
+    }
+    return bytesRead;
+  }
+
+  /**
+   * Starts loading further segments if there are fewer active loads than the target number of
+   * connections, and fewer segments held than the target allows.
+   */
+  private void maybeStartSegmentLoads() {
+    while (activeLoadCount < targetConnectionCount && segments.size() <= targetConnectionCount
+        && nextSegmentPosition < endPosition) {
+      int length = (int) Math.min(segmentSize, endPosition - nextSegmentPosition);
+      int allocationLength = allocator.getIndividualAllocationLength();
+      Segment segment = new Segment(dataSpec, nextSegmentPosition, length,
+          (length + allocationLength - 1) / allocationLength);
+      nextSegmentPosition += length;
+      segments.addLast(segment);
+      activeLoadCount++;
+      executor.execute(new SegmentLoadTask(segment));
+    }
+  }
+
+  /**
+   * Adapts the number of concurrent connections after each full round of segments has loaded.
+   */
+  private void onSegmentLoaded() {
+    if (bandwidthMeter == null || ++segmentsLoadedSinceAdjustment < targetConnectionCount) {
+      return;
+    }
+    segmentsLoadedSinceAdjustment = 0;
+    long bitrate = bandwidthMeter.getBitrateEstimate();
+    if (bitrate == BandwidthMeter.NO_ESTIMATE) {
+      return;
+    }
+    if (probing) {
+      if (bestBitrate == BandwidthMeter.NO_ESTIMATE
+          || bitrate > bestBitrate * MIN_PROBE_IMPROVEMENT) {
+        // The last connection helped. Try another.
+        bestBitrate = bitrate;
+        bestConnectionCount = targetConnectionCount;
+        if (targetConnectionCount < maxConnectionCount) {
+          targetConnectionCount++;
+        } else {
+          probing = false;
+        }
+      } else {
+        // The last connection didn't help. Settle on the best count seen.
+        targetConnectionCount = bestConnectionCount;
+        probing = false;
+      }
+    } else if (bitrate < bestBitrate * MAX_SETTLED_DEGRADATION) {
+      // Network conditions have changed. Probe again from the current count.
+      bestBitrate = bitrate;
+      bestConnectionCount = targetConnectionCount;
+      probing = targetConnectionCount < maxConnectionCount;
+      if (probing) {
+        targetConnectionCount++;
+      }
+    }
+  }
+
+  private synchronized HttpDataSource obtainSource() {
+    HttpDataSource source = idleSources.pollFirst();
+    return source != null ? source : dataSourceFactory.createHttpDataSource();
+  }
+
+  private synchronized void recycleSource(HttpDataSource source) {
+    if (idleSources.size() <= maxConnectionCount) {
+      idleSources.addLast(source);
+    }
+  }
+
+  private void releaseAllocations(Segment segment) {
+    for (int i = 0; i < segment.allocations.length; i++) {
+      if (segment.allocations[i] != null) {
+        allocator.release(segment.allocations[i]);
+        segment.allocations[i] = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the total length of the content from the {@code Content-Range} header of a response to
+   * a range request starting at the specified position.
+   *
+   * @param headers The response headers.
+   * @param position The requested start position.
+   * @return The total length of the content, or {@link C#LENGTH_UNBOUNDED} if the response isn't a
+   *     partial response starting at the requested position, or doesn't specify the total length.
+   */
+  private static long getContentLength(Map<String, List<String>> headers, long position) {
+    if (headers == null) {
+      return C.LENGTH_UNBOUNDED;
+    }
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (!"Content-Range".equalsIgnoreCase(header.getKey()) || header.getValue().isEmpty()) {
+        continue;
+      }
+      Matcher matcher = CONTENT_RANGE_HEADER.matcher(header.getValue().get(0));
+      if (matcher.find()) {
+        try {
+          if (Long.parseLong(matcher.group(1)) == position) {
+            return Long.parseLong(matcher.group(3));
+          }
+        } catch (NumberFormatException e) {
+          // Fall through.
+        }
+      }
+    }
+    return C.LENGTH_UNBOUNDED;
+  }
+
+  /**
+   * A contiguous part of the opened range, downloaded on a background thread.
+   */
+  private static final class Segment {
+
+    public final DataSpec dataSpec;
+    public final long position;
+    public final int length;
+    public final Allocation[] allocations;
+
+    // Written by the loading thread while holding the lock on the enclosing source.
+    public int bytesLoaded;
+    public IOException error;
+    public boolean loading;
+    public volatile boolean abandoned;
+
+    // Accessed only on the reading thread.
+    public int bytesRead;
+
+    public Segment(DataSpec dataSpec, long position, int length, int allocationCount) {
+      this.dataSpec = dataSpec;
+      this.position = position;
+      this.length = length;
+      this.allocations = new Allocation[allocationCount];
+      loading = true;
+    }
+
+  }
+
+  /**
+   * Downloads a single {@link Segment}.
+   */
+  private final class SegmentLoadTask implements Runnable {
+
+    private final Segment segment;
+
+    public SegmentLoadTask(Segment segment) {
+      this.segment = segment;
+    }
+
+    @Override
+    public void run() {
+      HttpDataSource source = obtainSource();
+      int allocationLength = allocator.getIndividualAllocationLength();
+      int bytesLoaded = 0;
+      try {
+        source.open(new DataSpec(segment.dataSpec.uri, segment.position, segment.length,
+            segment.dataSpec.key, segment.dataSpec.flags));
+        while (bytesLoaded < segment.length && !segment.abandoned) {
+          int index = bytesLoaded / allocationLength;
+          if (segment.allocations[index] == null) {
+            segment.allocations[index] = allocator.allocate();
+          }
+          Allocation allocation = segment.allocations[index];
+          int allocationOffset = bytesLoaded % allocationLength;
+          int readLength = Math.min(allocationLength - allocationOffset,
+              segment.length - bytesLoaded);
+          int read = source.read(allocation.data, allocation.translateOffset(allocationOffset),
+              readLength);
+          if (read == C.RESULT_END_OF_INPUT) {
+            throw new EOFException();
+          }
+          bytesLoaded += read;
+          synchronized (SegmentedDataSource.this) {
+            segment.bytesLoaded = bytesLoaded;
+            SegmentedDataSource.this.notifyAll();
+          }
+        }
+      } catch (IOException e) {
+        synchronized (SegmentedDataSource.this) {
+          segment.error = e;
+          SegmentedDataSource.this.notifyAll();
+        }
+      } finally {
+        try {
+          source.close();
+        } catch (IOException e) {
+          // Do nothing.
+        }
+        recycleSource(source);
+        synchronized (SegmentedDataSource.this) {
+          segment.loading = false;
+          if (segment.abandoned) {
+            // The slot was freed when the segment was abandoned.
+            releaseAllocations(segment);
+          } else {
+            activeLoadCount--;
+            if (segment.error == null) {
+              onSegmentLoaded();
+            }
+          }
+          maybeStartSegmentLoads();
+          SegmentedDataSource.this.notifyAll();
+        }
+      }
+    }
+
+  }
+
+}
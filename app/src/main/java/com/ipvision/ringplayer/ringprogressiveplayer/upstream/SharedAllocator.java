@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Divides a single byte budget between several consumers of a shared {@link Allocator}, such as
+ * the sample sources of several players in the same process.
+ * <p>
+ * Each consumer obtains a {@link Share}, which is an {@link Allocator} in its own right. A share
+ * is entitled to a fraction of the total budget proportional to its weight, so that, for example,
+ * a playing player can be given more memory than one that is preloading off-screen. Weights can be
+ * changed at any time, in which case the budgets of all shares are rebalanced immediately: loaders
+ * blocked on a share whose budget grows are woken, and a share whose budget shrinks stops loading
+ * until its consumer has drained it below the new budget.
+ * <p>
+ * Each share has a condition of its own, so that a loader blocked on a share is only woken when
+ * the share's budget grows or its consumer releases memory, rather than whenever any share
+ * changes.
+ */
+public final class SharedAllocator {
+
+  private final Allocator allocator;
+  private final int individualAllocationLength;
+  private final ReentrantLock lock;
+  // Guarded by lock.
+  private final ArrayList<Share> shares;
+
+  // Guarded by lock.
+  private int totalBudget;
+  private int totalWeight;
+  private int totalAllocatedCount;
+
+  /**
+   * @param allocator The shared {@link Allocator}, which must be safe to use from multiple threads.
+   * @param totalBudget The total number of bytes that may be allocated by all shares.
+   */
+  public SharedAllocator(Allocator allocator, int totalBudget) {
+    Assertions.checkArgument(totalBudget > 0);
+    this.allocator = allocator;
+    this.totalBudget = totalBudget;
+    individualAllocationLength = allocator.getIndividualAllocationLength();
+    lock = new ReentrantLock();
+    shares = new ArrayList<>();
+  }
+
+  /**
+   * Creates a new {@link Share} of the budget.
+   *
+   * @param weight The weight of the share, which must be positive.
+   * @return The new {@link Share}.
+   */
+  public Share createShare(int weight) {
+    Assertions.checkArgument(weight > 0);
+    lock.lock();
+    try {
+      Share share = new Share(weight);
+      shares.add(share);
+      totalWeight += weight;
+      updateBudgets();
+      return share;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the total number of bytes that may be allocated by all shares, rebalancing the budgets of
+   * all shares. Shares that hold more than their new budget stop loading until their consumers
+   * have drained them below it.
+   *
+   * @param totalBudget The total number of bytes that may be allocated by all shares.
+   */
+  public void setTotalBudget(int totalBudget) {
+    Assertions.checkArgument(totalBudget > 0);
+    lock.lock();
+    try {
+      this.totalBudget = totalBudget;
+      updateBudgets();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the total number of bytes that may be allocated by all shares.
+   */
+  public int getTotalBudget() {
+    lock.lock();
+    try {
+      return totalBudget;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases any memory held by the shared {@link Allocator} that is not currently allocated by a
+   * share.
+   */
+  public void trim() {
+    allocator.trim(getTotalBytesAllocated());
+  }
+
+  /**
+   * Returns the total number of bytes currently allocated by all shares.
+   */
+  public int getTotalBytesAllocated() {
+    lock.lock();
+    try {
+      return totalAllocatedCount * individualAllocationLength;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Recomputes the budget of every share, and wakes the threads blocked on the shares whose budget
+   * has grown. Must be called with the lock held.
+   */
+  private void updateBudgets() {
+    for (int i = 0; i < shares.size(); i++) {
+      Share share = shares.get(i);
+      int budget = totalWeight == 0 ? 0 : (int) ((long) totalBudget * share.weight / totalWeight);
+      if (budget > share.budget) {
+        share.budgetOrAllocationChanged.signalAll();
+      }
+      share.budget = budget;
+    }
+  }
+
+  /**
+   * A share of the budget of a {@link SharedAllocator}.
+   */
+  public final class Share implements Allocator {
+
+    private final Condition budgetOrAllocationChanged;
+
+    // Guarded by the SharedAllocator's lock.
+    private int weight;
+    private int budget;
+    private int allocatedCount;
+
+    private Share(int weight) {
+      this.weight = weight;
+      budgetOrAllocationChanged = lock.newCondition();
+    }
+
+    /**
+     * Sets the weight of the share, rebalancing the budgets of all shares.
+     *
+     * @param weight The weight of the share, which must be positive.
+     */
+    public void setWeight(int weight) {
+      Assertions.checkArgument(weight > 0);
+      lock.lock();
+      try {
+        Assertions.checkState(this.weight > 0);
+        totalWeight += weight - this.weight;
+        this.weight = weight;
+        updateBudgets();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Returns the number of bytes the share is currently entitled to.
+     */
+    public int getBudget() {
+      lock.lock();
+      try {
+        return budget;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Removes the share from the budget, so that the remaining shares are rebalanced.
+     * <p>
+     * Any allocations still held by the share should be released before it is closed.
+     */
+    public void close() {
+      lock.lock();
+      try {
+        if (shares.remove(this)) {
+          totalWeight -= weight;
+          weight = 0;
+          budget = 0;
+          updateBudgets();
+          // Wake up threads blocked on the closed share, which will remain blocked until its
+          // allocations have been released.
+          budgetOrAllocationChanged.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public Allocation allocate() {
+      Allocation allocation = allocator.allocate();
+      lock.lock();
+      try {
+        allocatedCount++;
+        totalAllocatedCount++;
+      } finally {
+        lock.unlock();
+      }
+      return allocation;
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+      allocator.release(allocation);
+      lock.lock();
+      try {
+        allocatedCount--;
+        totalAllocatedCount--;
+        // Wake up threads waiting for the share's allocated size to drop.
+        budgetOrAllocationChanged.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Memory allocated by the other shares is retained.
+     */
+    @Override
+    public void trim(int targetSize) {
+      int otherSharesBytesAllocated;
+      lock.lock();
+      try {
+        otherSharesBytesAllocated = (totalAllocatedCount - allocatedCount)
+            * individualAllocationLength;
+      } finally {
+        lock.unlock();
+      }
+      allocator.trim(otherSharesBytesAllocated + targetSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Also blocks while the number of bytes allocated by the share is greater than its budget.
+     */
+    @Override
+    public void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+      lock.lock();
+      try {
+        while (allocatedCount * individualAllocationLength > Math.min(limit, budget)) {
+          budgetOrAllocationChanged.await();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public int getTotalBytesAllocated() {
+      lock.lock();
+      try {
+        return allocatedCount * individualAllocationLength;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+      return individualAllocationLength;
+    }
+
+  }
+
+}
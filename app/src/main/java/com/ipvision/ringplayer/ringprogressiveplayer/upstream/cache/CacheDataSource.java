@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.upstream.cache;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DataSink;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.DataSpec;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.FileDataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.TeeDataSource;
+import com.ipvision.ringplayer.ringprogressiveplayer.upstream.cache.CacheDataSink.CacheDataSinkException;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.Assertions;
+import com.ipvision.ringplayer.ringprogressiveplayer.util.C;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.NavigableSet;
+
+/**
+ * A {@link DataSource} that reads and writes a {@link Cache}. Requests are fulfilled from the cache
+ * when possible. When data is not cached it is requested from upstream and written into the cache.
+ * <p>
+ * Unbounded requests (i.e. those whose {@link DataSpec#length} equals {@link C#LENGTH_UNBOUNDED})
+ * are supported. The resolved length of the data is recorded in the cache the first time it is
+ * requested from upstream, so that later requests for fully cached data never touch upstream.
+ * <p>
+ * If {@link DataSpec#key} is null then the {@link DataSpec#uri} is used as the cache key.
+ */
+public final class CacheDataSource implements DataSource {
+
+  /**
+   * Interface definition for a callback to be notified of {@link CacheDataSource} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Invoked when bytes have been read from {@link #cache} since the last invocation.
+     *
+     * @param cacheSizeBytes Current cache size in bytes.
+     * @param cachedBytesRead Total bytes read from {@link #cache} since last report.
+     */
+    void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead);
+
+  }
+
+  /**
+   * The default maximum size of a single cache file, in bytes.
+   */
+  public static final long DEFAULT_MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+
+  private static final String TAG = "CacheDataSource";
+
+  private final Cache cache;
+  private final DataSource cacheReadDataSource;
+  private final DataSource cacheWriteDataSource;
+  private final DataSource upstreamDataSource;
+
+  private final EventListener eventListener;
+
+  private final boolean blockOnCache;
+  private final boolean ignoreCacheOnError;
+
+  private DataSource currentDataSource;
+  private boolean currentRequestUnbounded;
+  private Uri uri;
+  private int flags;
+  private String key;
+  private long readPosition;
+  private long bytesRemaining;
+  private CacheSpan lockedSpan;
+  private boolean ignoreCache;
+  private long totalCachedBytesRead;
+
+  /**
+   * Constructs an instance with default {@link DataSource} and {@link DataSink} instances for
+   * reading and writing the cache. Cache files are fragmented at
+   * {@link #DEFAULT_MAX_CACHE_FILE_SIZE}.
+   */
+  public CacheDataSource(Cache cache, DataSource upstream, boolean blockOnCache,
+      boolean ignoreCacheOnError) {
+    this(cache, upstream, blockOnCache, ignoreCacheOnError, DEFAULT_MAX_CACHE_FILE_SIZE);
+  }
+
+  /**
+   * Constructs an instance with default {@link DataSource} and {@link DataSink} instances for
+   * reading and writing the cache. The sink is configured to fragment data such that no single
+   * cache file is greater than maxCacheFileSize bytes.
+   */
+  public CacheDataSource(Cache cache, DataSource upstream, boolean blockOnCache,
+      boolean ignoreCacheOnError, long maxCacheFileSize) {
+    // Cache files are small and are mostly read once, so they're not worth mapping.
+    this(cache, upstream, new FileDataSource(null, FileDataSource.MAPPED_WINDOW_SIZE_NONE),
+        new CacheDataSink(cache, maxCacheFileSize), blockOnCache, ignoreCacheOnError, null);
+  }
+
+  /**
+   * Constructs an instance with arbitrary {@link DataSource} and {@link DataSink} instances for
+   * reading and writing the cache. One use of this constructor is to allow data to be transformed
+   * before it is written to disk.
+   *
+   * @param cache The cache.
+   * @param upstream A {@link DataSource} for reading data not in the cache.
+   * @param cacheReadDataSource A {@link DataSource} for reading data from the cache.
+   * @param cacheWriteDataSink A {@link DataSink} for writing data to the cache.
+   * @param blockOnCache A flag indicating whether we will block reads if the cache key is locked.
+   *     If this flag is false, then we will read from upstream if the cache key is locked.
+   * @param ignoreCacheOnError Whether the cache is bypassed following any cache related error. If
+   *     true, then cache related exceptions may be thrown for one cycle of open, read and close
+   *     calls. Subsequent cycles of these calls will then bypass the cache.
+   * @param eventListener An optional {@link EventListener} to receive events.
+   */
+  public CacheDataSource(Cache cache, DataSource upstream, DataSource cacheReadDataSource,
+      DataSink cacheWriteDataSink, boolean blockOnCache, boolean ignoreCacheOnError,
+      EventListener eventListener) {
+    this.cache = cache;
+    this.cacheReadDataSource = cacheReadDataSource;
+    this.blockOnCache = blockOnCache;
+    this.ignoreCacheOnError = ignoreCacheOnError;
+    this.upstreamDataSource = upstream;
+    if (cacheWriteDataSink != null) {
+      this.cacheWriteDataSource = new TeeDataSource(upstream, cacheWriteDataSink);
+    } else {
+      this.cacheWriteDataSource = null;
+    }
+    this.eventListener = eventListener;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    try {
+      uri = dataSpec.uri;
+      flags = dataSpec.flags;
+      key = dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+      readPosition = dataSpec.position;
+      bytesRemaining = dataSpec.length;
+      if (bytesRemaining == C.LENGTH_UNBOUNDED && !ignoreCache) {
+        long contentLength = cache.getContentLength(key);
+        if (contentLength != C.LENGTH_UNBOUNDED) {
+          bytesRemaining = contentLength - readPosition;
+          if (bytesRemaining <= 0) {
+            // Let upstream report the error for a request that starts at or beyond the end.
+            bytesRemaining = C.LENGTH_UNBOUNDED;
+          }
+        }
+      }
+      openNextSource();
+      return bytesRemaining;
+    } catch (IOException e) {
+      handleBeforeThrow(e);
+      throw e;
+    }
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int max) throws IOException {
+    try {
+      if (bytesRemaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int num = currentDataSource.read(buffer, offset, max);
+      if (num >= 0) {
+        if (currentDataSource == cacheReadDataSource) {
+          totalCachedBytesRead += num;
+        }
+        readPosition += num;
+        if (bytesRemaining != C.LENGTH_UNBOUNDED) {
+          bytesRemaining -= num;
+        }
+      } else {
+        boolean reachedEndOfStream = currentRequestUnbounded;
+        closeCurrentSource();
+        if (reachedEndOfStream) {
+          // An open-ended request to upstream has ended, so we now know the content length.
+          if (!ignoreCache) {
+            cache.setContentLength(key, readPosition);
+          }
+        } else if (bytesRemaining > 0 || bytesRemaining == C.LENGTH_UNBOUNDED) {
+          openNextSource();
+          return read(buffer, offset, max);
+        }
+      }
+      return num;
+    } catch (IOException e) {
+      handleBeforeThrow(e);
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    notifyBytesRead();
+    try {
+      closeCurrentSource();
+    } catch (IOException e) {
+      handleBeforeThrow(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Opens the next source. If the cache contains data spanning the current read position then
+   * {@link #cacheReadDataSource} is opened to read from it. Else {@link #upstreamDataSource} is
+   * opened to read from the upstream source and write into the cache.
+   */
+  private void openNextSource() throws IOException {
+    DataSpec dataSpec;
+    CacheSpan span;
+    if (ignoreCache) {
+      span = null;
+    } else if (blockOnCache) {
+      try {
+        span = cache.startReadWrite(key, readPosition);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    } else {
+      span = cache.startReadWriteNonBlocking(key, readPosition);
+    }
+
+    long length;
+    if (span == null) {
+      // The data is locked in the cache, or we're ignoring the cache. Bypass the cache and read
+      // from upstream. If the data is locked, stop at the next cached span, so that data that the
+      // holder of the lock has already cached is read from the cache rather than loaded again.
+      currentDataSource = upstreamDataSource;
+      long lengthToNextCachedSpan = ignoreCache ? C.LENGTH_UNBOUNDED : getLengthToNextCachedSpan();
+      length = lengthToNextCachedSpan == C.LENGTH_UNBOUNDED ? bytesRemaining
+          : getRequestLength(lengthToNextCachedSpan);
+      dataSpec = new DataSpec(uri, readPosition, length, key, flags);
+    } else if (span.isCached) {
+      // Data is cached, read from cache.
+      Uri fileUri = Uri.fromFile(span.file);
+      long filePosition = readPosition - span.position;
+      length = getRequestLength(span.length - filePosition);
+      dataSpec = new DataSpec(fileUri, readPosition, filePosition, length, key, flags);
+      currentDataSource = cacheReadDataSource;
+    } else {
+      // Data is not cached, and data is not locked, read from upstream with cache backing.
+      lockedSpan = span;
+      length = span.isOpenEnded() ? bytesRemaining : getRequestLength(span.length);
+      dataSpec = new DataSpec(uri, readPosition, length, key, flags);
+      currentDataSource = cacheWriteDataSource != null ? cacheWriteDataSource
+          : upstreamDataSource;
+    }
+    currentRequestUnbounded = length == C.LENGTH_UNBOUNDED;
+    long resolvedLength = currentDataSource.open(dataSpec);
+    if (currentRequestUnbounded && resolvedLength != C.LENGTH_UNBOUNDED) {
+      // Upstream has resolved the length of the remaining data.
+      currentRequestUnbounded = false;
+      bytesRemaining = resolvedLength;
+      if (!ignoreCache) {
+        cache.setContentLength(key, readPosition + resolvedLength);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes from the read position to the start of the next cached span, or
+   * {@link C#LENGTH_UNBOUNDED} if there is no cached span after the read position.
+   */
+  private long getLengthToNextCachedSpan() {
+    NavigableSet<CacheSpan> cachedSpans = cache.getCachedSpans(key);
+    CacheSpan nextSpan = cachedSpans == null ? null
+        : cachedSpans.higher(CacheSpan.createLookup(key, readPosition));
+    return nextSpan == null ? C.LENGTH_UNBOUNDED : nextSpan.position - readPosition;
+  }
+
+  /**
+   * Returns the length to request from a source that can provide at most {@code maxLength} bytes.
+   */
+  private long getRequestLength(long maxLength) {
+    return bytesRemaining == C.LENGTH_UNBOUNDED ? maxLength : Math.min(maxLength, bytesRemaining);
+  }
+
+  private void closeCurrentSource() throws IOException {
+    if (currentDataSource == null) {
+      return;
+    }
+    try {
+      currentDataSource.close();
+      currentDataSource = null;
+      currentRequestUnbounded = false;
+    } finally {
+      if (lockedSpan != null) {
+        cache.releaseHoleSpan(lockedSpan);
+        lockedSpan = null;
+      }
+    }
+  }
+
+  private void handleBeforeThrow(IOException exception) {
+    if (ignoreCacheOnError && (currentDataSource == cacheReadDataSource
+        || exception instanceof CacheDataSinkException)) {
+      // Ignore the cache from now on.
+      Log.w(TAG, "Bypassing the cache following an error", exception);
+      ignoreCache = true;
+    }
+  }
+
+  private void notifyBytesRead() {
+    if (eventListener != null && totalCachedBytesRead > 0) {
+      eventListener.onCachedBytesRead(cache.getCacheSpace(), totalCachedBytesRead);
+      totalCachedBytesRead = 0;
+    }
+  }
+
+}
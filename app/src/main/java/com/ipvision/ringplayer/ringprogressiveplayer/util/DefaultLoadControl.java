@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.util;
+
+/**
+ * A {@link LoadControl} that pauses loading once a high watermark of buffered media is reached,
+ * and resumes it once the buffered media falls below a low watermark.
+ * <p>
+ * Loading in bursts between the two watermarks, rather than continuously topping up the buffer,
+ * allows the radio to sleep while playback drains the buffer.
+ */
+public final class DefaultLoadControl implements LoadControl {
+
+  /**
+   * The default duration of buffered media below which loading resumes, in milliseconds.
+   */
+  public static final int DEFAULT_LOW_WATERMARK_MS = 15000;
+  /**
+   * The default duration of buffered media above which loading pauses, in milliseconds.
+   */
+  public static final int DEFAULT_HIGH_WATERMARK_MS = 30000;
+
+  private final long lowWatermarkUs;
+  private final long highWatermarkUs;
+
+  public DefaultLoadControl() {
+    this(DEFAULT_LOW_WATERMARK_MS, DEFAULT_HIGH_WATERMARK_MS);
+  }
+
+  /**
+   * @param lowWatermarkMs The duration of buffered media below which loading resumes, in
+   *     milliseconds.
+   * @param highWatermarkMs The duration of buffered media above which loading pauses, in
+   *     milliseconds.
+   */
+  public DefaultLoadControl(int lowWatermarkMs, int highWatermarkMs) {
+    Assertions.checkArgument(lowWatermarkMs <= highWatermarkMs);
+    lowWatermarkUs = lowWatermarkMs * 1000L;
+    highWatermarkUs = highWatermarkMs * 1000L;
+  }
+
+  @Override
+  public boolean shouldContinueLoading(long bufferedDurationUs, boolean loading) {
+    return bufferedDurationUs < (loading ? highWatermarkUs : lowWatermarkUs);
+  }
+
+}
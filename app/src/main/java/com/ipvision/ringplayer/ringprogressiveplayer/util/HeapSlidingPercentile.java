@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.util;
+
+/**
+ * A {@link WeightedPercentile} with the same sliding window semantics as
+ * {@link SlidingPercentile}, which tracks a single percentile that is fixed on construction.
+ * <p>
+ * Observations are partitioned between a max-heap holding the smallest values and a min-heap
+ * holding the rest, such that the top of the max-heap is the value at the tracked percentile.
+ * Adding an observation or evicting the oldest one takes logarithmic time, and querying the
+ * percentile takes constant time. All state is held in primitive arrays that are only reallocated
+ * when the number of observations in the window grows beyond their capacity.
+ */
+public final class HeapSlidingPercentile implements WeightedPercentile {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int maxWeight;
+  private final float percentile;
+  private final Heap lowerHeap;
+  private final Heap upperHeap;
+
+  // Observations, stored in a ring in the order in which they were added.
+  private float[] values;
+  private int[] weights;
+  private boolean[] inLowerHeap;
+  private int[] heapPositions;
+  private int oldestIndex;
+  private int sampleCount;
+
+  private int totalWeight;
+
+  /**
+   * @param maxWeight The maximum total weight of the observations in the window.
+   * @param percentile The percentile to track, expressed as a fraction in the range (0,1].
+   */
+  public HeapSlidingPercentile(int maxWeight, float percentile) {
+    Assertions.checkArgument(percentile > 0 && percentile <= 1);
+    this.maxWeight = maxWeight;
+    this.percentile = percentile;
+    values = new float[INITIAL_CAPACITY];
+    weights = new int[INITIAL_CAPACITY];
+    inLowerHeap = new boolean[INITIAL_CAPACITY];
+    heapPositions = new int[INITIAL_CAPACITY];
+    lowerHeap = new Heap(true);
+    upperHeap = new Heap(false);
+  }
+
+  @Override
+  public void addSample(int weight, float value) {
+    if (sampleCount == values.length) {
+      grow();
+    }
+    int index = (oldestIndex + sampleCount++) % values.length;
+    values[index] = value;
+    weights[index] = weight;
+    if (lowerHeap.size > 0 && value <= values[lowerHeap.top()]) {
+      lowerHeap.add(index);
+    } else {
+      upperHeap.add(index);
+    }
+    totalWeight += weight;
+
+    while (totalWeight > maxWeight) {
+      int excessWeight = totalWeight - maxWeight;
+      Heap heap = inLowerHeap[oldestIndex] ? lowerHeap : upperHeap;
+      if (weights[oldestIndex] <= excessWeight) {
+        totalWeight -= weights[oldestIndex];
+        heap.remove(oldestIndex);
+        oldestIndex = (oldestIndex + 1) % values.length;
+        sampleCount--;
+      } else {
+        weights[oldestIndex] -= excessWeight;
+        heap.weight -= excessWeight;
+        totalWeight -= excessWeight;
+      }
+    }
+
+    rebalance();
+  }
+
+  /**
+   * Returns the tracked percentile.
+   *
+   * @param percentile The desired percentile, which must equal the percentile passed to the
+   *     constructor.
+   * @return The requested percentile value or Float.NaN.
+   */
+  @Override
+  public float getPercentile(float percentile) {
+    Assertions.checkArgument(percentile == this.percentile);
+    if (lowerHeap.size > 0) {
+      return values[lowerHeap.top()];
+    }
+    // The lower heap is only empty if there are no observations, or if their total weight is zero.
+    return upperHeap.size > 0 ? values[upperHeap.top()] : Float.NaN;
+  }
+
+  /**
+   * Moves observations between the heaps until the lower heap holds the smallest observations
+   * whose accumulated weight reaches the tracked percentile of the total weight, and no more.
+   */
+  private void rebalance() {
+    float desiredWeight = percentile * totalWeight;
+    while (true) {
+      if (upperHeap.size > 0 && lowerHeap.weight < desiredWeight) {
+        lowerHeap.add(upperHeap.remove(upperHeap.top()));
+      } else if (lowerHeap.size > 0
+          && lowerHeap.weight - weights[lowerHeap.top()] >= desiredWeight) {
+        upperHeap.add(lowerHeap.remove(lowerHeap.top()));
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Doubles the capacity of the ring, moving the oldest observation to index zero.
+   */
+  private void grow() {
+    int capacity = values.length;
+    float[] newValues = new float[capacity * 2];
+    int[] newWeights = new int[capacity * 2];
+    boolean[] newInLowerHeap = new boolean[capacity * 2];
+    int[] newHeapPositions = new int[capacity * 2];
+    for (int i = 0; i < sampleCount; i++) {
+      int oldIndex = (oldestIndex + i) % capacity;
+      newValues[i] = values[oldIndex];
+      newWeights[i] = weights[oldIndex];
+      newInLowerHeap[i] = inLowerHeap[oldIndex];
+      newHeapPositions[i] = heapPositions[oldIndex];
+    }
+    lowerHeap.remapIndices(oldestIndex, capacity);
+    upperHeap.remapIndices(oldestIndex, capacity);
+    values = newValues;
+    weights = newWeights;
+    inLowerHeap = newInLowerHeap;
+    heapPositions = newHeapPositions;
+    oldestIndex = 0;
+  }
+
+  /**
+   * A binary heap of ring indices, ordered by the value of the observation at each index.
+   */
+  private final class Heap {
+
+    private final boolean isMaxHeap;
+
+    public int[] indices;
+    public int size;
+    public int weight;
+
+    public Heap(boolean isMaxHeap) {
+      this.isMaxHeap = isMaxHeap;
+      indices = new int[INITIAL_CAPACITY];
+    }
+
+    public int top() {
+      return indices[0];
+    }
+
+    public void add(int index) {
+      if (size == indices.length) {
+        int[] newIndices = new int[size * 2];
+        System.arraycopy(indices, 0, newIndices, 0, size);
+        indices = newIndices;
+      }
+      inLowerHeap[index] = isMaxHeap;
+      weight += weights[index];
+      set(size++, index);
+      siftUp(size - 1);
+    }
+
+    public int remove(int index) {
+      int position = heapPositions[index];
+      weight -= weights[index];
+      size--;
+      if (position != size) {
+        set(position, indices[size]);
+        siftDown(position);
+        siftUp(position);
+      }
+      return index;
+    }
+
+    public void remapIndices(int oldestIndex, int capacity) {
+      for (int i = 0; i < size; i++) {
+        indices[i] = (indices[i] - oldestIndex + capacity) % capacity;
+      }
+    }
+
+    private void siftUp(int position) {
+      while (position > 0) {
+        int parent = (position - 1) / 2;
+        if (!isHigherPriority(indices[position], indices[parent])) {
+          return;
+        }
+        swap(position, parent);
+        position = parent;
+      }
+    }
+
+    private void siftDown(int position) {
+      while (true) {
+        int child = 2 * position + 1;
+        if (child >= size) {
+          return;
+        }
+        if (child + 1 < size && isHigherPriority(indices[child + 1], indices[child])) {
+          child++;
+        }
+        if (!isHigherPriority(indices[child], indices[position])) {
+          return;
+        }
+        swap(position, child);
+        position = child;
+      }
+    }
+
+    private boolean isHigherPriority(int index, int otherIndex) {
+      return isMaxHeap ? values[index] > values[otherIndex] : values[index] < values[otherIndex];
+    }
+
+    private void swap(int position, int otherPosition) {
+      int index = indices[position];
+      set(position, indices[otherPosition]);
+      set(otherPosition, index);
+    }
+
+    private void set(int position, int index) {
+      indices[position] = index;
+      heapPositions[index] = position;
+    }
+
+  }
+
+}
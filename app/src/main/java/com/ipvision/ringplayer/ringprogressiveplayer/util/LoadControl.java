@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.util;
+
+/**
+ * Controls whether a source continues loading media, based on the duration of media that it has
+ * buffered ahead of the playback position.
+ */
+public interface LoadControl {
+
+  /**
+   * Invoked to determine whether loading should continue.
+   *
+   * @param bufferedDurationUs The duration of media buffered ahead of the playback position, in
+   *     microseconds.
+   * @param loading Whether the source is currently loading, as opposed to paused by a previous
+   *     invocation of this method.
+   * @return Whether loading should continue.
+   */
+  boolean shouldContinueLoading(long bufferedDurationUs, boolean loading);
+
+}
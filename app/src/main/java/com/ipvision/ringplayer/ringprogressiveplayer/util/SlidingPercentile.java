@@ -31,7 +31,7 @@ import java.util.Comparator;
  * @see <a href="http://en.wikipedia.org/wiki/Moving_average">Wiki: Moving average</a>
  * @see <a href="http://en.wikipedia.org/wiki/Selection_algorithm">Wiki: Selection algorithm</a>
  */
-public final class SlidingPercentile {
+public final class SlidingPercentile implements WeightedPercentile {
 
   // Orderings.
   private static final Comparator<Sample> INDEX_COMPARATOR = new Comparator<Sample>() {
@@ -78,6 +78,7 @@ public final class SlidingPercentile {
    * @param weight The weight of the new observation.
    * @param value The value of the new observation.
    */
+  @Override
   public void addSample(int weight, float value) {
     ensureSortedByIndex();
 
@@ -111,6 +112,7 @@ public final class SlidingPercentile {
    * @param percentile The desired percentile, expressed as a fraction in the range (0,1].
    * @return The requested percentile value or Float.NaN.
    */
+  @Override
   public float getPercentile(float percentile) {
     ensureSortedByValue();
     float desiredWeight = percentile * totalWeight;
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ipvision.ringplayer.ringprogressiveplayer.util;
+
+/**
+ * Calculates a percentile over a sliding window of weighted values.
+ */
+public interface WeightedPercentile {
+
+  /**
+   * Record a new observation. Respect the configured total weight by reducing in weight or
+   * removing the oldest observations as required.
+   *
+   * @param weight The weight of the new observation.
+   * @param value The value of the new observation.
+   */
+  void addSample(int weight, float value);
+
+  /**
+   * Returns the requested percentile of the observations in the window.
+   *
+   * @param percentile The desired percentile, expressed as a fraction in the range (0,1].
+   * @return The requested percentile value or Float.NaN.
+   */
+  float getPercentile(float percentile);
+
+}